@@ -82,8 +82,23 @@ public class Agent extends Application{
                 Server.submitBid(currAuction, currItem.getName(), Integer.parseInt(bidFld.getText()));
             }
         });
+        Button maxBidBtn = new Button("Set Max Bid");
+        maxBidBtn.setOnMouseClicked(e -> {
+            if(currAuction != null && currItem != null) {
+                currItem.setBidStatus("Max Bid Submitted");
+                bidStatusLbl.setText("Max bid submitted");
+                Server.submitMaxBid(currAuction, currItem.getName(), Integer.parseInt(bidFld.getText()));
+            }
+        });
+        Button budgetBtn = new Button("Set Budget");
+        budgetBtn.setOnMouseClicked(e -> {
+            if(currAuction != null) {
+                bidStatusLbl.setText("Budget requested");
+                Server.submitBudget(currAuction, Integer.parseInt(bidFld.getText()));
+            }
+        });
         auctionItemBox.getChildren().addAll(currAuctionLbl, itemsBox, currItemLbl,bidStatusLbl,
-                bidLbl,bidSldr,bidFld,submitBtn);
+                bidLbl,bidSldr,bidFld,submitBtn,maxBidBtn,budgetBtn);
         auctionItemBox.setAlignment(Pos.CENTER);
         auctionItemBox.setSpacing(10);
         bidSldr.setMaxWidth(150);
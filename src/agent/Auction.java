@@ -19,6 +19,7 @@ public class Auction {
     private int port;
     private final HashMap<Integer,Item> items;
     private final HBox displayBox;
+    private long version = -1;
 
     Auction(String hostName, String name, int port){
         this.hostName = hostName;
@@ -43,8 +44,9 @@ public class Auction {
      * Takes in the updated items list from an auction, copies the old bid statuses if an item didn't get removed, and
      * updates the items hashmap.
      * @param itemsUpdate updated items list
+     * @param version catalog version of the list, -1 if the auction did not send one
      */
-    protected void updateItems(ArrayList<Item> itemsUpdate){
+    protected void updateItems(ArrayList<Item> itemsUpdate, long version){
         //transfers the bid statuses from the old list to the new list
         for (Item item : itemsUpdate) {
             if (items.containsKey(item.getItemId())) item.setBidStatus(items.get(item.getItemId()).getBidStatus());
@@ -52,6 +54,7 @@ public class Auction {
 
         items.clear();
         for (Item item : itemsUpdate) items.put(item.getItemId(),item);
+        this.version = version;
 
         Platform.runLater(() -> Agent.updateItemsBox(items, name));
     }
@@ -62,7 +65,9 @@ public class Auction {
      * @param bid new bid
      */
     protected void updateItem(int itemID, int bid){
-        items.get(itemID).setBid(bid);
+        Item item = items.get(itemID);
+        if (item == null) return;
+        item.setBid(bid);
         Platform.runLater(()->Agent.updateItemsBox(items,name));
     }
 
@@ -72,10 +77,78 @@ public class Auction {
      * @param bidStatus new bid
      */
     protected void updateItem(int itemID, String bidStatus){
-        items.get(itemID).setBidStatus(bidStatus);
+        Item item = items.get(itemID);
+        if (item == null) return;
+        item.setBidStatus(bidStatus);
         Platform.runLater(()->Agent.updateItemsBox(items,name));
     }
 
+    /**
+     * Applies a single price change from an itemDelta message. Deltas carry the catalog version they produced, so
+     * one that skips past the next version means a message was missed. A delta at or below the current version is
+     * already part of the last full list (the auction may send the list instead of queued deltas) and is ignored.
+     * @param itemID item ID
+     * @param bid new highest bid
+     * @param version catalog version after the change
+     * @return false if the delta could not be applied and the full list should be requested again
+     */
+    protected boolean applyDelta(int itemID, int bid, long version){
+        if (isStale(version)) return true;
+        if (!isNext(version) || !items.containsKey(itemID)) return false;
+
+        this.version = version;
+        updateItem(itemID, bid);
+        return true;
+    }
+
+    /**
+     * Adds a lot the auction has just opened, from a lotOpened message. Versions are checked as in applyDelta.
+     * @param item the new lot
+     * @param version catalog version after the lot opened
+     * @return false if the lot could not be added and the full list should be requested again
+     */
+    protected boolean applyLotOpened(Item item, long version){
+        if (isStale(version)) return true;
+        if (!isNext(version)) return false;
+
+        this.version = version;
+        items.put(item.getItemId(), item);
+        Platform.runLater(() -> Agent.updateItemsBox(items, name));
+        return true;
+    }
+
+    /**
+     * Removes a lot the auction has just closed, from a lotClosed message. Versions are checked as in applyDelta.
+     * @param itemID item ID
+     * @param version catalog version after the lot closed
+     * @return false if the lot could not be removed and the full list should be requested again
+     */
+    protected boolean applyLotClosed(int itemID, long version){
+        if (isStale(version)) return true;
+        if (!isNext(version)) return false;
+
+        this.version = version;
+        items.remove(itemID);
+        Platform.runLater(() -> Agent.updateItemsBox(items, name));
+        return true;
+    }
+
+    /**
+     * @param version catalog version of an update
+     * @return true if the last full list already includes the update
+     */
+    private boolean isStale(long version){
+        return this.version >= 0 && version <= this.version;
+    }
+
+    /**
+     * @param version catalog version of an update
+     * @return true if the update directly follows the current version
+     */
+    private boolean isNext(long version){
+        return this.version >= 0 && version == this.version + 1;
+    }
+
     public HashMap<Integer,Item> getItems() {
         return items;
     }
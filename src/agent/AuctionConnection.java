@@ -24,6 +24,7 @@ public class AuctionConnection implements Runnable{
 
     public AuctionConnection(String hostName, int portNumber,Auction auction) throws Exception{
         socket = new Socket(hostName,portNumber);
+        socket.setTcpNoDelay(true);
         this.auction = auction;
         InputStreamReader inputStreamReader = new InputStreamReader(socket.getInputStream());
         bufferedReader = new BufferedReader(inputStreamReader);
@@ -34,20 +35,21 @@ public class AuctionConnection implements Runnable{
     }
 
     /**
-     * checks for a new message every 100 milliseconds and calls process inbox
+     * waits for the next message from the auction and calls process inbox as soon as it arrives
      */
     @Override
     public void run() {
         while(!socket.isClosed()){
-            try {
-                Thread.sleep(100);
-            }catch (InterruptedException ei){}
-
+            String message;
             try{
-                inbox.add(bufferedReader.readLine());
+                message = bufferedReader.readLine();
             } catch (IOException e) {
-
+                message = null;
             }
+            //the auction closed the connection
+            if (message == null) break;
+
+            inbox.add(message);
             processInbox();
         }
     }
@@ -61,15 +63,38 @@ public class AuctionConnection implements Runnable{
             String[] args = message.split(" ");
             System.out.println("Message received from auction " + message);
             switch (args[0]) {
-                //format: "auctionItems itemName/itemId currentBid"
+                //format: "auctionItems version itemName/itemId currentBid ..."
+                //older auction houses leave out the version
                 case "auctionItems" -> {
                     ArrayList<Item> auctionItems = new ArrayList<>();
-                    for (int i = 1; i < args.length; i += 2) {
+                    boolean versioned = args.length % 2 == 0;
+                    long version = versioned ? Long.parseLong(args[1]) : -1;
+                    for (int i = versioned ? 2 : 1; i < args.length; i += 2) {
                         String[] nameAndID = args[i].split("/");
                         auctionItems.add(new Item(nameAndID[0], (int) Double.parseDouble(nameAndID[1]),
                                 (int) Double.parseDouble(args[i+1])));
                     }
-                    auction.updateItems(auctionItems);
+                    auction.updateItems(auctionItems, version);
+                }
+                //format: "itemDelta itemId currentBid version"
+                case "itemDelta" -> {
+                    if (!auction.applyDelta(Integer.parseInt(args[1]), (int) Double.parseDouble(args[2]),
+                            Long.parseLong(args[3]))) {
+                        Server.requestAuctionItems(auction);
+                    }
+                }
+                //format: "lotOpened itemId itemName currentBid version"
+                case "lotOpened" -> {
+                    Item item = new Item(args[2], Integer.parseInt(args[1]), (int) Double.parseDouble(args[3]));
+                    if (!auction.applyLotOpened(item, Long.parseLong(args[4]))) {
+                        Server.requestAuctionItems(auction);
+                    }
+                }
+                //format: "lotClosed itemId version"
+                case "lotClosed" -> {
+                    if (!auction.applyLotClosed(Integer.parseInt(args[1]), Long.parseLong(args[2]))) {
+                        Server.requestAuctionItems(auction);
+                    }
                 }
                 //format: "Bid itemId currentBid"
                 case "Bid" -> {
@@ -87,13 +112,18 @@ public class AuctionConnection implements Runnable{
                 //format: "itemDelivered itemId"
                 case "bidPlaced" ->{
                     auction.updateItem(Integer.parseInt(args[1]), "Bid Accepted");
-                    Server.requestAuctionItems(auction);
+                    Server.getBankConnection().sendMessage("CheckBalance");
+                }
+                //format: "budgetGranted amount" or "budgetDenied amount"
+                case "budgetGranted", "budgetDenied" -> {
                     Server.getBankConnection().sendMessage("CheckBalance");
                 }
                 //format: "itemDelivered itemId"
                 case "itemWon" ->{
                     auction.updateItem(Integer.parseInt(args[1]), "Item Won");
-                    Platform.runLater(() ->Agent.addToYourItems(auction.getItem(Integer.parseInt(args[1])).getName()));
+                    //looked up now, the lot leaves the list when the auction closes it
+                    Item won = auction.getItem(Integer.parseInt(args[1]));
+                    if (won != null) Platform.runLater(() ->Agent.addToYourItems(won.getName()));
                 }
             }
         }
@@ -26,27 +26,31 @@ public class BankConnection implements Runnable{
 
     public BankConnection(String hostName, int portNumber) throws Exception{
         socket = new Socket(hostName,portNumber);
+        socket.setTcpNoDelay(true);
         InputStreamReader inputStreamReader = new InputStreamReader(socket.getInputStream());
         bufferedReader = new BufferedReader(inputStreamReader);
         printWriter = new PrintWriter(socket.getOutputStream(), true);
         inbox = new ArrayBlockingQueue<>(20);
     }
 
+    /**
+     * waits for the next message from the bank and calls process inbox as soon as it arrives
+     */
     @Override
     public void run() {
         while(!socket.isClosed()){
-            try {
-                Thread.sleep(100);
-            }catch (InterruptedException ei){}
-
+            String message;
             try{
-                inbox.add(bufferedReader.readLine());
-            } catch (IOException e) {}
-            catch (NullPointerException npe){
+                message = bufferedReader.readLine();
+            } catch (IOException e) {
+                message = null;
+            }
+            if (message == null){
                 System.out.println("The Bank ShutDown");
                 System.exit(1);
             }
 
+            inbox.add(message);
             processInbox();
         }
         System.exit(1);
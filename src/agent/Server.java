@@ -44,6 +44,27 @@ public class Server{
         auctionConnections.get(auctionName).sendMessage("newBid " + itemName + " " + bid);
     }
 
+    /**
+     * Registers a maximum bid. The auction house bids on the agent's behalf, by the minimum increment each time it
+     * is outbid, up to the maximum.
+     * @param auctionName auction the item is sold at
+     * @param itemName item to bid on
+     * @param max most the agent is willing to pay
+     */
+    protected static void submitMaxBid(String auctionName, String itemName, int max){
+        auctionConnections.get(auctionName).sendMessage("maxBid " + itemName + " " + max);
+    }
+
+    /**
+     * Asks the auction to have the bank set aside part of the agent's balance as a bidding budget. Bids the budget
+     * covers are accepted by the auction right away, without a hold request to the bank for each one.
+     * @param auctionName auction the budget is for
+     * @param amount amount to add to the budget
+     */
+    protected static void submitBudget(String auctionName, int amount){
+        auctionConnections.get(auctionName).sendMessage("budget " + amount);
+    }
+
     public static BankConnection getBankConnection() {
         return bankConnection;
     }
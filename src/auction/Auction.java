@@ -6,92 +6,30 @@ import java.util.concurrent.TimeUnit;
 import static java.lang.Math.random;
 
 /**
- * Main class of the auction program. Constructs item list from user file
- * (if given), fetches bank host and port info from STDIN, and initializes
- * bank connection, auction house server, and bid manager used to run the
- * auction house.
+ * Main class of the auction program. Fetches bank host and port info from
+ * STDIN, constructs item list from user file (if given), and starts an
+ * Engine with a single AuctionHouse on it. See AuctionHost for running many
+ * houses in one program.
  */
 public class Auction {
-    private static int port = -1;
-    private static String  auctionName = "";
-    private static final Map<String, Double> initPrices = new HashMap<>();
-    private static final List<String> items = new ArrayList<>();
-    private static int maxItems = 3;
 
     /**
      * Entry point to the program
      * @param args Command line arguments. args[0] = local port for auction
      *             house server (required), args[1] = items list file
-     *             (optional)
+     *             (optional). Run with -Dauction.virtualThreads=true to use
+     *             virtual threads, and see SaleWindow for the settings
+     *             that decide how many lots are open at once. If the
+     *             last run did not close normally, its bid log
+     *             (-Dauction.bidLog, default auction-bids.log) is
+     *             recovered instead of reading the items file.
      */
     public static void main(String[] args) {
         File file = null;
+        int port = -1;
 
         if (args.length >= 2) file = new File(args[1]);
 
-        if (file !=  null) {
-            try (BufferedReader br = new BufferedReader(
-                    new FileReader(file))) {
-                String in;
-                List<Integer> ids = new ArrayList<>();
-
-                while ((in = br.readLine()) != null) {
-                    String[] arr = in.split(" ");
-
-                    String item = "";
-
-                    for (int a = 0; a < arr.length - 1; a++) {
-                        item += a == 0 ? arr[a] : "-" + arr[a];
-                    }
-
-                    int id;
-
-                    do {
-                        id = (int)(random() * 1000);
-                    } while (ids.contains(id));
-
-                    item += "/" + id;
-                    ids.add(id);
-
-                    double startBid;
-                    try {
-                        startBid = Double.parseDouble(arr[arr.length - 1]);
-                    } catch (NumberFormatException exc) {
-                        startBid = 50.0;
-                    }
-
-                    initPrices.put(item, startBid);
-                    items.add(item);
-                }
-            } catch (FileNotFoundException exc) {
-                System.err.println("Items file was not found");
-            } catch (IOException exc) {
-                System.err.println("Unable to read items list");
-            }
-        }
-
-        if (items.isEmpty() && initPrices.isEmpty()) {
-            List<Integer> ids = new ArrayList<>();
-
-            while (ids.size() < 4) {
-                int newID = (int)(random() * 1000);
-
-                if (!ids.contains(newID)) ids.add(newID);
-            }
-
-            items.add("gaming-chair/" + ids.get(0));
-            items.add("hypercar-toy/" + ids.get(1));
-            items.add("PS5-game/" + ids.get(2));
-            items.add("monke-NFT/" + ids.get(3));
-
-            initPrices.put(items.get(0), 75.0);
-            initPrices.put(items.get(1), 10.0);
-            initPrices.put(items.get(2), 60.0);
-            initPrices.put(items.get(3), 100.0);
-        }
-
-        Collections.shuffle(items);
-
         try {
             port = Integer.parseInt(args[0]);
 
@@ -110,7 +48,7 @@ public class Auction {
         Scanner scanner = new Scanner(System.in);
 
         System.out.println("Provide your auction's name below:");
-        auctionName = scanner.nextLine();
+        String auctionName = scanner.nextLine();
 
         String[] array = auctionName.split(" ");
         if (array.length > 1) {
@@ -131,22 +69,22 @@ public class Auction {
 
         System.out.println("Connecting to the bank...");
 
-        try {
-            // set up bank communication
-            BankConnection bankComm = new BankConnection(bankHost, bankPort);
-            Thread t3 = new Thread(bankComm);
-            t3.start();
-
+        if (Boolean.getBoolean("auction.virtualThreads") &&
+                Threads.useVirtualThreads()) {
+            System.out.println("Running on virtual threads");
+        }
 
-            // start auction server
-            Server server = new Server(port);
-            Thread t1 = new Thread(server);
-            t1.start();
+        try {
+            // set up bank communication, accept loop and lot timers
+            Engine engine = new Engine(bankHost, bankPort);
+            engine.start();
 
-            // start bid manager
-            BidManager bidManager = new BidManager();
-            Thread t2 = new Thread(bidManager);
-            t2.start();
+            // stock and open the house
+            AuctionHouse house = new AuctionHouse(engine, auctionName, port,
+                    new File(System.getProperty("auction.bidLog",
+                            "auction-bids.log")).toPath());
+            stock(house, file);
+            house.open();
 
             TimeUnit.SECONDS.sleep(1);
 
@@ -154,9 +92,8 @@ public class Auction {
             System.out.println("Auction is open for business now");
             System.out.println("WARNING: Do not exit this program through " +
                     "any means other than the in-program options menu");
-            Menu menu = new Menu(scanner);
-            Thread t4 = new Thread(menu);
-            t4.start();
+            Menu menu = new Menu(scanner, house);
+            Threads.start(menu);
         } catch (IOException exc) {
             System.err.println("Something went wrong. Double check that all " +
                     "host names and port numbers you provided are correct, " +
@@ -169,42 +106,61 @@ public class Auction {
     }
 
     /**
-     * Fetches the starting big price of an auction house item
-     * @param itemName Name of the item
-     * @return Starting bid price as a double value
+     * Fills a house's catalog before it opens: recovers its bid log if the
+     * last run did not close normally, otherwise loads the items file (or
+     * four sample items if there is none), shuffles them and starts a new
+     * bid log
+     * @param house The house
+     * @param file Items file, or null
      */
-    protected static double getInitPrice(String itemName) {
-        return initPrices.get(itemName);
-    }
+    protected static void stock(AuctionHouse house, File file) {
+        Catalog catalog = house.catalog();
+        boolean recovered = false;
 
-    /**
-     * @return List of items which the auction house will sell (only the
-     * first 3 items are currently for sale)
-     */
-    protected static synchronized List<String> getItems() {
-        return items;
-    }
+        try {
+            recovered = house.bidLog().recover();
+            if (recovered) System.out.println(house + ": recovered the " +
+                    "auction from the bid log");
+        } catch (IOException exc) {
+            System.err.println(house + ": unable to read the bid log, " +
+                    "starting over");
+        }
 
-    /**
-     * @return Maximum amount of auctions which can occur at the same time
-     * (usually 3)
-     */
-    protected static int getMaxConcurrentSales() {
-        return maxItems;
-    }
+        if (recovered) return;
 
-    /**
-     * @return Port number which the auction house server is listening on
-     */
-    protected static int getPort(){
-        return port;
-    }
+        if (file !=  null) {
+            try {
+                catalog.addAll(CatalogLoader.load(file));
+            } catch (FileNotFoundException exc) {
+                System.err.println("Items file was not found");
+            } catch (IOException exc) {
+                System.err.println("Unable to read items list");
+            }
+        }
 
-    /**
-     * @return Name of this auction house
-     */
-    protected static String getName() {
-        return auctionName;
+        if (catalog.isEmpty()) {
+            List<Integer> ids = new ArrayList<>();
+
+            while (ids.size() < 4) {
+                int newID = (int)(random() * 1000);
+
+                if (!ids.contains(newID)) ids.add(newID);
+            }
+
+            catalog.add(new Item(ids.get(0), "gaming-chair", 75.0));
+            catalog.add(new Item(ids.get(1), "hypercar-toy", 10.0));
+            catalog.add(new Item(ids.get(2), "PS5-game", 60.0));
+            catalog.add(new Item(ids.get(3), "monke-NFT", 100.0));
+        }
+
+        catalog.shuffle();
+
+        try {
+            house.bidLog().start();
+        } catch (IOException exc) {
+            System.err.println(house + ": unable to start the bid log, " +
+                    "bids will not survive a crash");
+        }
     }
 
     /**
@@ -0,0 +1,159 @@
+package auction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Runs many auction houses in one program, all on one Engine: one accept
+ * loop, one lot scheduler and one bank connection for every house. Each
+ * line of the houses file is "name port pin [itemsFile]". Every house logs
+ * in to the bank on its own (registering on the first run, as a returning
+ * user after that) and keeps its bid log in -Dauction.bidLogDir (default
+ * the working directory) as name-bids.log, so each one recovers on its own
+ * after a crash.
+ */
+public class AuctionHost {
+
+    /**
+     * Entry point to the program
+     * @param args Command line arguments. args[0] = bank host name,
+     *             args[1] = bank port, args[2] = houses file
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: AuctionHost bankHost bankPort " +
+                    "housesFile");
+            System.exit(1);
+        }
+
+        if (Boolean.getBoolean("auction.virtualThreads") &&
+                Threads.useVirtualThreads()) {
+            System.out.println("Running on virtual threads");
+        }
+
+        File logDir = new File(System.getProperty("auction.bidLogDir", "."));
+        Engine engine = null;
+
+        try {
+            engine = new Engine(args[0], Integer.parseInt(args[1]));
+            engine.start();
+
+            for (String[] spec : readHouses(new File(args[2]))) {
+                AuctionHouse house = new AuctionHouse(engine, spec[0],
+                        Integer.parseInt(spec[1]),
+                        new File(logDir, spec[0] + "-bids.log").toPath());
+
+                // one bad house must not keep the others from opening
+                try {
+                    Auction.stock(house, spec.length > 3 ?
+                            new File(spec[3]) : null);
+                    house.open();
+                    login(house, spec[2]);
+                    System.out.println(house + " is open on port " +
+                            house.getPort());
+                } catch (IOException | RuntimeException exc) {
+                    house.fail(exc);
+                }
+            }
+        } catch (IOException | NumberFormatException exc) {
+            System.err.println("Unable to start: " + exc.getMessage());
+            System.exit(2);
+        }
+
+        Scanner scanner = new Scanner(System.in);
+        System.out.println("[S] Status of every house, [Q] Close all");
+
+        while (scanner.hasNextLine()) {
+            switch (scanner.nextLine().trim().toLowerCase()) {
+                case "s" -> {
+                    for (AuctionHouse house : engine.getHouses()) {
+                        System.out.println(house + " port " +
+                                house.getPort() + ": " +
+                                house.catalog().openCount() + " open, " +
+                                house.catalog().queuedCount() + " queued, " +
+                                house.server().getClientCount() +
+                                " clients, bank " +
+                                (house.bank().isRegistered() ? "Y" : "N"));
+                    }
+                }
+                case "q" -> {
+                    boolean busy = false;
+                    for (AuctionHouse house : engine.getHouses())
+                        busy |= house.bids().hasUnresolvedBids();
+
+                    if (busy) {
+                        System.err.println("Unable to quit program: " +
+                                "there are auctions in progress");
+                    } else {
+                        engine.close(true);
+                        System.out.println("Closing auction houses...");
+                        System.exit(0);
+                    }
+                }
+                default -> System.err.println("Not a valid option");
+            }
+        }
+    }
+
+    /**
+     * Reads the houses file, skipping blank lines and # comments
+     * @param file Houses file
+     * @return One "name port pin [itemsFile]" array per house
+     * @throws IOException If the file can not be read
+     */
+    private static List<String[]> readHouses(File file) throws IOException {
+        List<String[]> houses = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String in;
+
+            while ((in = br.readLine()) != null) {
+                in = in.trim();
+                if (!in.isEmpty() && !in.startsWith("#"))
+                    houses.add(in.split("\\s+"));
+            }
+        }
+
+        return houses;
+    }
+
+    /**
+     * Logs a house in to the bank, registering it if the bank does not
+     * know it yet
+     * @param house The house
+     * @param pin The house's 4-digit PIN
+     */
+    private static void login(AuctionHouse house, String pin) {
+        house.bank().login("ReturningUser " + house.getName() + " " + pin);
+        if (awaitLogin(house)) return;
+
+        house.bank().login("registerAuction " + house.getName() + " " + pin);
+        if (!awaitLogin(house))
+            System.err.println(house + ": unable to login with bank");
+    }
+
+    /**
+     * @param house The house
+     * @return True if the house logged in within 3 seconds
+     */
+    private static boolean awaitLogin(AuctionHouse house) {
+        for (int incr = 0; incr < 30; incr++) {
+            if (house.bank().isRegistered()) return true;
+            if (house.bank().hasLoginFailed()) return false;
+
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return house.bank().isRegistered();
+    }
+}
@@ -0,0 +1,175 @@
+package auction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One auction house. Owns everything that belongs to a single house: its
+ * catalog, bid manager (bid book, workers and sale window), agent server,
+ * budgets, bid log and bank session. Everything a house shares with the
+ * other houses in the JVM (the accept loop, the lot scheduler and the bank
+ * link) belongs to its Engine, so any number of houses can run side by
+ * side. A house that fails only takes down its own lots and agents: the
+ * engine keeps serving the rest, and the house can be closed on its own.
+ */
+public class AuctionHouse {
+    private final Engine engine;
+    private final String name;
+    private final int port;
+    private final Catalog catalog = new Catalog();
+    private final BidLog bidLog;
+    private final BankConnection bank;
+    private final Server server;
+    private final Map<Integer, Budget> budgets = new ConcurrentHashMap<>();
+    private final Metrics metrics = new Metrics(this);
+    private BidManager bidManager;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new auction house with an empty catalog. Fill the catalog
+     * (or recover the bid log) before opening the house.
+     * @param engine Engine the house runs on
+     * @param name Name of the house (no spaces)
+     * @param port Port agents connect to
+     * @param bidLog Bid log file of the house
+     */
+    public AuctionHouse(Engine engine, String name, int port, Path bidLog) {
+        this.engine = engine;
+        this.name = name;
+        this.port = port;
+        this.bidLog = new BidLog(this, bidLog);
+        this.bank = new BankConnection(this);
+        this.server = new Server(this);
+    }
+
+    /**
+     * Starts taking agents and opening lots
+     * @throws IOException If the house's port can not be opened
+     */
+    public void open() throws IOException {
+        bidManager = new BidManager(this);
+        Threads.start(bidManager);
+        bidManager.start();
+        server.listen(port);
+        metrics.register();
+    }
+
+    /**
+     * Closes the house: disconnects its agents, logs it out of the bank and
+     * stops its workers. The other houses of the engine keep running.
+     * @param clean True if the auction is over, which removes the bid log;
+     *              false keeps it so the house can be recovered
+     */
+    public void close(boolean clean) {
+        if (closed) return;
+        closed = true;
+
+        try {
+            server.close();
+        } catch (IOException exc) {
+            System.err.println(name + ": error closing the server " +
+                    exc.getMessage());
+        }
+
+        bank.close();
+        if (bidManager != null) bidManager.stop();
+        if (clean) bidLog.close();
+        metrics.unregister();
+        engine.remove(this);
+    }
+
+    /**
+     * Called when something went wrong inside the house that it can not
+     * recover from. Only this house is closed; its bid log is kept.
+     * @param exc What went wrong
+     */
+    protected void fail(Throwable exc) {
+        System.err.println(name + " failed: " + exc);
+        exc.printStackTrace();
+        close(false);
+    }
+
+    /**
+     * @return True once the house has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return Name of the house
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Port agents connect to
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Engine the house runs on
+     */
+    protected Engine engine() {
+        return engine;
+    }
+
+    /**
+     * @return Items sold by the house
+     */
+    public Catalog catalog() {
+        return catalog;
+    }
+
+    /**
+     * @return Bid manager of the house, null until the house is open
+     */
+    protected BidManager bids() {
+        return bidManager;
+    }
+
+    /**
+     * @return Agent server of the house
+     */
+    protected Server server() {
+        return server;
+    }
+
+    /**
+     * @return Session of the house on the engine's bank link
+     */
+    public BankConnection bank() {
+        return bank;
+    }
+
+    /**
+     * @return Bidding budgets of the house's agents by agent ID
+     */
+    protected Map<Integer, Budget> budgets() {
+        return budgets;
+    }
+
+    /**
+     * @return Bid log of the house
+     */
+    public BidLog bidLog() {
+        return bidLog;
+    }
+
+    /**
+     * @return Latencies and counters of the house
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -1,91 +1,165 @@
 package auction;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Encapsulates socket connection between an agent program and the bank server.
- * Handles communication between the bank and the auction house.
+ * An auction house's session with the bank, carried over its engine's
+ * shared BankLink. Handles communication between the bank and the auction
+ * house.
+ *
+ * Hold requests carry a correlation ID that the bank echoes in its reply, so
+ * any number of holds can be in flight at once and each reply is matched to
+ * its request even when several are for the same bidder and item. A hold
+ * with no reply after auction.holdTimeoutMillis (default 2000) is sent again
+ * with the same ID, which the bank answers without placing it twice. After
+ * auction.holdRetries retries (default 3) the bid is failed.
  */
-public class BankConnection implements Runnable {
-    private static boolean registered = false;
-    private static Socket socket;
-    private static PrintWriter toBank;
-    private static BufferedReader fromBank;
-
-    /**
-     * Creates a new bank connection object with the given parameters
-     * @param host Host name of the bank's server
-     * @param port Port number of the bank's server
-     * @throws IOException If an error occurred while attempting to connect
-     * to the bank server
-     */
-    public BankConnection(String host, int port) throws IOException {
-        socket = new Socket(host, port);
-        toBank = new PrintWriter(socket.getOutputStream(),true);
-        InputStreamReader isr = new InputStreamReader(socket.getInputStream());
-        fromBank = new BufferedReader(isr);
-    }
+public class BankConnection {
+    private static final long HOLD_TIMEOUT =
+            Long.getLong("auction.holdTimeoutMillis", 2000);
+    private static final int HOLD_RETRIES =
+            Integer.getInteger("auction.holdRetries", 3);
+
+    private final AuctionHouse house;
+    private final int session;
+    private volatile boolean registered = false;
+    private volatile boolean loginFailed = false;
+    private boolean reconciled = false;
+    private final BlockingQueue<Double> balances =
+            new ArrayBlockingQueue<>(10);
+    private final AtomicLong nextCorrelation = new AtomicLong();
+    private final Map<Long, PendingHold> pendingHolds =
+            new ConcurrentHashMap<>();
+    private final Map<Long, Boolean> abandonedHolds =
+            new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Long, Boolean> eldest) {
+                    return size() > 4096;
+                }
+            };
 
     /**
-     * Thread loop checks for new messages to or from the bank
+     * Hold request waiting for the bank's reply
+     * @param request The reqHold message, including its correlation ID
+     * @param clientID ID of the bidder
+     * @param itemID ID of the item
+     * @param sentAt Time in milliseconds the request was last sent
+     * @param attempts Number of times the request has been sent
+     * @param firstSent System.nanoTime of the first send
      */
-    @Override
-    public void run() {
-        String input;
-
-        while (!socket.isClosed() && !Auction.getItems().isEmpty()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException exc){
-                Thread.currentThread().interrupt();
-            }
+    private record PendingHold(String request, int clientID, int itemID,
+                               long sentAt, int attempts, long firstSent) {}
 
-            try {
-                input = fromBank.readLine();
-            } catch (IOException exc) {
-                input = null;
-            }
-
-            if (input != null) {
-                processBankMsg(input);
-            }
-        }
+    /**
+     * Opens the bank session of a house on its engine's link. Nothing is
+     * sent until the house logs in.
+     * @param house The house
+     */
+    public BankConnection(AuctionHouse house) {
+        this.house = house;
+        this.session = house.engine().bankLink().add(this);
+    }
 
-        if (!socket.isClosed() && Auction.getItems().isEmpty())
-            toBank.println("auctionClosing soldOut");
+    /**
+     * @return The house this session belongs to
+     */
+    protected AuctionHouse house() {
+        return house;
     }
 
     /**
      * @return True if bank account has been successfully logged into,
      * otherwise false
      */
-    public static boolean isRegistered() {
+    public boolean isRegistered() {
         return registered;
     }
 
+    /**
+     * @return True if the bank turned down the last login
+     */
+    public boolean hasLoginFailed() {
+        return loginFailed;
+    }
+
+    /**
+     * Logs the house in
+     * @param msg registerAuction or ReturningUser message
+     */
+    public void login(String msg) {
+        loginFailed = false;
+        sendMessage(msg);
+    }
+
     /**
      * Processes new message from the bank
      * @param input Message from bank
      */
-    private synchronized void processBankMsg(String input) {
+    protected synchronized void processBankMsg(String input) {
         String[] args = input.split(" ");
         System.out.println("Message received from bank" + input);
         switch (args[0]) {
             case "SuccessfulLogin" -> {
                 registered = true;
-                toBank.println("open "  + Auction.getPort());
+
+                // the bank hears once per run where the books stand
+                if (!reconciled) {
+                    reconciled = true;
+                    sendMessage(house.bidLog().reconcileLine());
+                    for (String win : house.bidLog().unsettledWins())
+                        sendMessage(win);
+                }
+
+                sendMessage("open "  + house.getPort());
             }
+            case "reconciled" -> System.out.println("Bank reconciled " +
+                    args[1] + " lots");
+            case "reconcileFailed" -> System.err.println("Bank could not " +
+                    "hold the lead of agent " + args[2] + " on item " +
+                    args[1]);
             case "FailedLogin" -> {
+                loginFailed = true;
                 System.err.println("Unable to login to bank");
             }
-            case "fundsTransferred", "holdSuccessful", "holdFailed" ->
-                    BidManager.sendMessage(input);
-            case "Balances" -> Menu.sendBalance(Double.parseDouble(args[1]));
+            case "fundsTransferred" -> house.bids().sendMessage(input);
+            case "holdSuccessful", "holdFailed" -> {
+                // holdSuccessful clientID amount itemID correlationID
+                // holdFailed clientID itemID correlationID
+                int last = args.length - 1;
+                boolean correlated = args[0].equals("holdSuccessful") ?
+                        args.length > 4 : args.length > 3;
+                PendingHold hold;
+
+                if (!correlated) {
+                    house.bids().sendMessage(input);
+                } else if ((hold = pendingHolds.remove(
+                        Long.parseLong(args[last]))) != null) {
+                    house.metrics().holdRoundTrip()
+                            .recordSince(hold.firstSent());
+                    house.bids().sendMessage(input);
+                } else if (args[0].equals("holdSuccessful") &&
+                        isAbandoned(Long.parseLong(args[last]))) {
+                    // the bid was already failed; the lot's worker gives
+                    // the money back unless the bidder holds the lot anew
+                    house.bids().sendMessage("staleHold " + args[1] + " " +
+                            args[2] + " " + args[3]);
+                }
+                // anything else answers a retry that was already answered
+            }
+            case "budgetGranted" -> Budget.granted(house,
+                    Integer.parseInt(args[1]), Double.parseDouble(args[2]));
+            case "budgetDenied" -> house.server().sendTo(
+                    Integer.parseInt(args[1]), "budgetDenied " + args[2]);
+            case "Balances" -> balances.offer(Double.parseDouble(args[1]));
             case "FailedReg" -> {
+                loginFailed = true;
                 System.err.println("User already has a user with your name or the same password");
             }
         }
@@ -95,19 +169,119 @@ public class BankConnection implements Runnable {
      * Send a message to the bank
      * @param msg Message to the bank
      */
-    protected static void sendMessage(String msg) {
-        toBank.println(msg);
+    protected void sendMessage(String msg) {
+        house.engine().bankLink().send(session, msg);
+    }
+
+    /**
+     * Asks the bank to hold funds for a bid without waiting for the reply.
+     * The reply comes back to the bid manager as holdSuccessful or
+     * holdFailed ending with the returned correlation ID.
+     * @param clientID ID of the bidder
+     * @param amount Amount to hold
+     * @param itemID ID of the item
+     * @return Correlation ID of the request
+     */
+    protected long requestHold(int clientID, double amount, int itemID) {
+        long correlation = nextCorrelation.incrementAndGet();
+        String request = "reqHold " + clientID + " " + amount + " " +
+                itemID + " " + correlation;
+
+        pendingHolds.put(correlation, new PendingHold(request, clientID,
+                itemID, System.currentTimeMillis(), 1, System.nanoTime()));
+        sendMessage(request);
+        return correlation;
+    }
+
+    /**
+     * @param clientID ID of a bidder
+     * @param itemID ID of an item
+     * @return True if a hold request for the bidder on the item is waiting
+     * for the bank
+     */
+    protected boolean hasPendingHold(int clientID, int itemID) {
+        for (PendingHold hold : pendingHolds.values())
+            if (hold.clientID() == clientID && hold.itemID() == itemID)
+                return true;
+
+        return false;
+    }
+
+    /**
+     * @param itemID ID of an item
+     * @return True if a hold request for anyone on the item is waiting for
+     * the bank
+     */
+    protected boolean hasPendingHolds(int itemID) {
+        for (PendingHold hold : pendingHolds.values())
+            if (hold.itemID() == itemID) return true;
+
+        return false;
+    }
+
+    /**
+     * @return Number of hold requests waiting for the bank
+     */
+    protected int getPendingHolds() {
+        return pendingHolds.size();
+    }
+
+    /**
+     * Waits for the answer to a CheckBalance request
+     * @param timeoutMillis Most time to wait in milliseconds
+     * @return The balance, or null if the bank did not answer in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    protected Double awaitBalance(long timeoutMillis)
+            throws InterruptedException {
+        return balances.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resends hold requests the bank has not answered in time, and fails
+     * the bid once the retries are used up. Called by the link's timer.
+     * @param now Current time in milliseconds
+     */
+    protected void retryHolds(long now) {
+        for (Map.Entry<Long, PendingHold> entry : pendingHolds.entrySet()) {
+            PendingHold hold = entry.getValue();
+
+            if (now - hold.sentAt() < HOLD_TIMEOUT) continue;
+
+            if (hold.attempts() <= HOLD_RETRIES) {
+                PendingHold retry = new PendingHold(hold.request(),
+                        hold.clientID(), hold.itemID(), now,
+                        hold.attempts() + 1, hold.firstSent());
+
+                if (pendingHolds.replace(entry.getKey(), hold, retry))
+                    sendMessage(hold.request());
+            } else if (pendingHolds.remove(entry.getKey(), hold)) {
+                synchronized (abandonedHolds) {
+                    abandonedHolds.put(entry.getKey(), Boolean.TRUE);
+                }
+                System.err.println("Bank did not answer " + hold.request());
+                house.bids().sendMessage("holdFailed " + hold.clientID() +
+                        " " + hold.itemID() + " " + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @param correlation Correlation ID of a hold request
+     * @return True if the request timed out and its bid was failed
+     */
+    private boolean isAbandoned(long correlation) {
+        synchronized (abandonedHolds) {
+            return abandonedHolds.remove(correlation) != null;
+        }
     }
 
     /**
-     * Closes connection with the bank
-     * @throws IOException If an error occurred while disconnecting from
-     * the bank server
+     * Logs the house out of the bank. The link stays open for the other
+     * houses.
      */
-    protected static void close() throws IOException {
-        toBank.println("auctionClosing noActivity");
-        toBank.close();
-        fromBank.close();
-        socket.close();
+    protected void close() {
+        sendMessage("auctionClosing noActivity");
+        house.engine().bankLink().remove(this);
     }
 }
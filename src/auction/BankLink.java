@@ -0,0 +1,147 @@
+package auction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one socket to the bank that every auction house of an engine shares.
+ * Each house's BankConnection is a session on the link with its own number;
+ * its messages go out as "@session message" and the bank tags its replies
+ * the same way, so the bank keeps a separate login, budget key and holds
+ * for every session. Replies are handed to their session on the link's
+ * reader thread; a session that throws is failed on its own and the link
+ * carries on. One timer thread retries the unanswered holds of every
+ * session.
+ */
+public class BankLink implements Runnable {
+    private static final long HOLD_TIMEOUT =
+            Long.getLong("auction.holdTimeoutMillis", 2000);
+
+    private final Socket socket;
+    private final PrintWriter toBank;
+    private final BufferedReader fromBank;
+    private final Map<Integer, BankConnection> sessions =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+
+    /**
+     * Creates a new bank link with the given parameters
+     * @param host Host name of the bank's server
+     * @param port Port number of the bank's server
+     * @throws IOException If an error occurred while attempting to connect
+     * to the bank server
+     */
+    public BankLink(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        toBank = new PrintWriter(socket.getOutputStream(), true);
+        InputStreamReader isr = new InputStreamReader(socket.getInputStream());
+        fromBank = new BufferedReader(isr);
+        Threads.start(this::retryHolds);
+    }
+
+    /**
+     * Thread loop hands every message from the bank to its session
+     */
+    @Override
+    public void run() {
+        String input;
+
+        while (!socket.isClosed()) {
+            try {
+                input = fromBank.readLine();
+            } catch (IOException exc) {
+                input = null;
+            }
+
+            // end of stream, the other side has gone away
+            if (input == null) break;
+
+            int space = input.indexOf(' ');
+            if (!input.startsWith("@") || space < 0) {
+                System.out.println("Untagged message from bank " + input);
+                continue;
+            }
+
+            BankConnection session = sessions.get(
+                    Integer.parseInt(input.substring(1, space)));
+            if (session == null) continue;
+
+            try {
+                session.processBankMsg(input.substring(space + 1));
+            } catch (RuntimeException exc) {
+                session.house().fail(exc);
+            }
+        }
+    }
+
+    /**
+     * Opens a session for a house
+     * @param session The house's bank connection
+     * @return Number of the session
+     */
+    protected int add(BankConnection session) {
+        int id = nextSession.getAndIncrement();
+        sessions.put(id, session);
+        return id;
+    }
+
+    /**
+     * Closes a house's session. Late replies for it are dropped.
+     * @param session The house's bank connection
+     */
+    protected void remove(BankConnection session) {
+        sessions.values().remove(session);
+    }
+
+    /**
+     * Sends a message for a session
+     * @param session Number of the session
+     * @param msg Message to the bank
+     */
+    protected void send(int session, String msg) {
+        toBank.println("@" + session + " " + msg);
+    }
+
+    /**
+     * Timer loop lets every session resend the hold requests the bank has
+     * not answered in time
+     */
+    private void retryHolds() {
+        while (!socket.isClosed()) {
+            try {
+                Thread.sleep(Math.max(1, HOLD_TIMEOUT / 4));
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+
+            for (BankConnection session : sessions.values()) {
+                try {
+                    session.retryHolds(now);
+                } catch (RuntimeException exc) {
+                    session.house().fail(exc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the connection with the bank
+     * @throws IOException If an error occurred while disconnecting from
+     * the bank server
+     */
+    protected void close() throws IOException {
+        toBank.close();
+        fromBank.close();
+        socket.close();
+    }
+}
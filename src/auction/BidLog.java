@@ -0,0 +1,558 @@
+package auction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of every change to the auction's books, so a house that
+ * dies in the middle of an auction can pick up where it left off. The
+ * entries are
+ *   open item                            the lot opened for bidding
+ *   bid item bidder amount closeAt       new leading bid
+ *   proxy item bidder max                standing proxy of the leader
+ *   unproxy item                         the proxy is gone
+ *   won item winner price                the lot closed
+ *   delivered item                       the bank has settled the lot
+ *   unsold item                          the lot closed without bids
+ *
+ * Entries are queued by the bid workers and written by one writer thread,
+ * which syncs the file once per batch. A bid does not wait for its entry,
+ * so a crash can lose the last few milliseconds of bids; the bank
+ * reconciliation after the restart releases the holds of those bids. A win
+ * does wait, so the bank never settles a lot the log does not know about.
+ *
+ * If a batch can not be written the log is broken: the batch is neither
+ * counted as written nor applied to the shadow books, nothing more is
+ * written, and every win waiting for the log is refused, so the bank does
+ * not settle it. The files are kept for the restart.
+ *
+ * The writer applies every entry it has written to a shadow copy of the
+ * books. Every -Dauction.snapshotEvery entries (default 100000) it writes
+ * the shadow to a snapshot and starts a new log, so the log never grows
+ * without bound and a snapshot always matches its log exactly. Snapshots
+ * and logs carry a generation number, and a log is only replayed on the
+ * snapshot with the same generation.
+ *
+ * Every AuctionHouse has its own log. The snapshot has the log's name with
+ * ".snapshot". Both are removed when the house closes normally.
+ */
+public class BidLog implements Runnable {
+    private static final long SNAPSHOT_EVERY =
+            Long.getLong("auction.snapshotEvery", 100000);
+
+    private final AuctionHouse house;
+    private final Path log;
+    private final Path snapshot;
+    private final Path nextLog;
+    private final Path nextSnapshot;
+
+    private final Object lock = new Object();
+    private ArrayList<String> pending = new ArrayList<>();
+    private long appended = 0;
+    private long flushed = 0;
+    private boolean broken = false;
+    private boolean running = false;
+    private long generation;
+    private FileChannel channel;
+
+    private final ArrayDeque<Item> queued = new ArrayDeque<>();
+    private final Map<Integer, Lot> lots = new LinkedHashMap<>();
+    private boolean recovered = false;
+
+    /**
+     * A lot that has opened, as the log knows it
+     */
+    private static class Lot {
+        private final Item item;
+        private boolean won = false;
+        private int bidderID = Item.NO_BIDDER;
+        private double amount;
+        private long closeAt = 0;
+        private int proxyID = Item.NO_BIDDER;
+        private double proxyMax = 0;
+
+        private Lot(Item item) {
+            this.item = item;
+            this.amount = item.getInitPrice();
+        }
+    }
+
+    /**
+     * Creates the bid log of a house. Nothing is written until it is
+     * started or recovered.
+     * @param house The house
+     * @param log Log file; the snapshot is the same name with ".snapshot"
+     */
+    public BidLog(AuctionHouse house, Path log) {
+        this.house = house;
+        this.log = log;
+        this.snapshot = Paths.get(log + ".snapshot");
+        this.nextLog = Paths.get(log + ".tmp");
+        this.nextSnapshot = Paths.get(snapshot + ".tmp");
+    }
+
+    /**
+     * Starts a new log for the items in the catalog, replacing any old one
+     * @throws IOException If the log can not be written
+     */
+    protected void start() throws IOException {
+        queued.addAll(house.catalog().queuedItems());
+        generation = 1;
+        writeSnapshot(snapshot);
+        writeLog(log);
+        startWriter();
+    }
+
+    /**
+     * Rebuilds the books from the snapshot and log left by a house that
+     * did not close normally, and keeps logging on top of them. Queued
+     * items, open lots with their leading bids, clocks and proxies, and
+     * lots won but not yet settled all go back into the catalog.
+     * @return False if there was nothing to recover
+     * @throws IOException If the snapshot can not be read
+     */
+    protected boolean recover() throws IOException {
+        if (!Files.exists(snapshot)) return false;
+
+        readSnapshot();
+
+        if (readGeneration(log) == generation) {
+            try (BufferedReader reader = Files.newBufferedReader(log,
+                    StandardCharsets.UTF_8)) {
+                reader.readLine();
+                String line;
+
+                // an entry cut off by the crash is the last line
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        apply(line.split(" "));
+                    } catch (RuntimeException exc) {
+                        System.err.println("Skipping bad log entry " + line);
+                    }
+                }
+            }
+        } else {
+            // the snapshot was taken but the next log never replaced the
+            // old one, whose entries the snapshot already has
+            writeLog(log);
+        }
+
+        Catalog catalog = house.catalog();
+        catalog.addAll(new ArrayList<>(queued));
+
+        for (Lot lot : lots.values()) {
+            Item item = lot.item;
+            catalog.restore(item, !lot.won);
+
+            if (lot.bidderID != Item.NO_BIDDER)
+                item.setHighestBid(lot.bidderID, lot.amount);
+
+            item.setCloseAt(lot.closeAt);
+            if (lot.won) item.close();
+        }
+
+        recovered = true;
+        startWriter();
+        return true;
+    }
+
+    /**
+     * Builds the message that brings the bank's holds in line with the
+     * books: every open lot with the amount its leader should hold (the
+     * proxy maximum if the leader has one), or leader -1 if nobody should
+     * hold anything on it. A house that did not recover anything starts a
+     * new auction instead.
+     * @return "reconcile item:leader:amount ..." or "reconcile new"
+     */
+    protected String reconcileLine() {
+        if (!recovered) return "reconcile new";
+
+        StringBuilder line = new StringBuilder("reconcile");
+
+        synchronized (lock) {
+            for (Lot lot : lots.values()) {
+                if (lot.won) continue;
+
+                Item.Bid leading = lot.item.getLeadingBid();
+                double amount = lot.proxyID == leading.bidderID() ?
+                        Math.max(lot.proxyMax, leading.amount()) :
+                        leading.amount();
+
+                line.append(' ').append(lot.item.getId()).append(':')
+                        .append(leading.bidderID()).append(':')
+                        .append(amount);
+            }
+        }
+
+        return line.toString();
+    }
+
+    /**
+     * @return itemWon messages, marked as replays, for every lot that was
+     * won but not confirmed as settled by the bank
+     */
+    protected List<String> unsettledWins() {
+        List<String> wins = new ArrayList<>();
+
+        synchronized (lock) {
+            for (Lot lot : lots.values()) {
+                if (lot.won) wins.add("itemWon " + lot.item.getId() + " " +
+                        lot.bidderID + " " + lot.amount + " replay");
+            }
+        }
+
+        return wins;
+    }
+
+    /**
+     * Calls the visitor with every proxy bid of the recovered books
+     * @param visitor Called with the item ID, agent and maximum
+     */
+    protected void forEachProxy(ProxyVisitor visitor) {
+        synchronized (lock) {
+            for (Lot lot : lots.values()) {
+                if (!lot.won && lot.proxyID != Item.NO_BIDDER)
+                    visitor.accept(lot.item.getId(), lot.proxyID,
+                            lot.proxyMax);
+            }
+        }
+    }
+
+    /**
+     * Receives the proxy bids of the recovered books
+     */
+    protected interface ProxyVisitor {
+        void accept(int itemID, int clientID, double max);
+    }
+
+    /**
+     * Queues an entry. Returns at once; the entry reaches the disk with the
+     * writer's next batch.
+     * @param entry Log entry
+     */
+    protected void append(String entry) {
+        synchronized (lock) {
+            if (!running) return;
+
+            pending.add(entry);
+            appended++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every entry queued so far is on disk
+     * @return False if they are not, because the log is broken, was closed
+     * or the wait was interrupted
+     */
+    protected boolean sync() {
+        synchronized (lock) {
+            long ticket = appended;
+
+            while (running && !broken && flushed < ticket) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return flushed >= ticket;
+        }
+    }
+
+    /**
+     * Stops logging after the house has closed normally and removes the
+     * log, so the next start begins a new auction
+     */
+    protected void close() {
+        synchronized (lock) {
+            if (!running) return;
+
+            running = false;
+            lock.notifyAll();
+        }
+
+        try {
+            channel.close();
+
+            // the log misses entries, the restart needs what it has
+            if (isBroken()) return;
+
+            Files.deleteIfExists(log);
+            Files.deleteIfExists(snapshot);
+        } catch (IOException exc) {
+            System.err.println("Unable to remove the bid log");
+        }
+    }
+
+    /**
+     * Writer loop. Writes everything queued since the last batch, syncs
+     * once, then applies the batch to the shadow books. Once a batch has
+     * failed, later batches are dropped.
+     */
+    @Override
+    public void run() {
+        long sinceSnapshot = 0;
+
+        while (true) {
+            ArrayList<String> batch;
+
+            synchronized (lock) {
+                while (running && pending.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+                if (!running) return;
+
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+
+            if (isBroken()) continue;
+
+            try {
+                flush(batch);
+            } catch (IOException exc) {
+                System.err.println("Bid log write failed " + exc.getMessage());
+
+                synchronized (lock) {
+                    broken = true;
+                    lock.notifyAll();
+                }
+                continue;
+            }
+
+            synchronized (lock) {
+                for (String entry : batch) apply(entry.split(" "));
+
+                flushed += batch.size();
+                lock.notifyAll();
+            }
+
+            sinceSnapshot += batch.size();
+
+            if (sinceSnapshot >= SNAPSHOT_EVERY) {
+                try {
+                    compact();
+                    sinceSnapshot = 0;
+                } catch (IOException exc) {
+                    System.err.println("Bid log snapshot failed " +
+                            exc.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return True once a batch could not be written
+     */
+    private boolean isBroken() {
+        synchronized (lock) {
+            return broken;
+        }
+    }
+
+    /**
+     * Opens the log for appending and starts the writer thread
+     * @throws IOException If the log can not be opened
+     */
+    private void startWriter() throws IOException {
+        channel = FileChannel.open(log, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        running = true;
+        Threads.start(this);
+    }
+
+    /**
+     * Applies one entry to the shadow books
+     * @param args The entry split on spaces
+     */
+    private void apply(String[] args) {
+        int itemID = Integer.parseInt(args[1]);
+
+        if (args[0].equals("open")) {
+            Item item = queued.peekFirst();
+
+            // lots open in queue order, but look further just in case
+            if (item == null || item.getId() != itemID) {
+                item = null;
+                for (Item next : queued) if (next.getId() == itemID) item = next;
+            }
+
+            if (item != null) {
+                queued.remove(item);
+                lots.put(itemID, new Lot(item));
+            }
+            return;
+        }
+
+        Lot lot = lots.get(itemID);
+        if (lot == null) return;
+
+        switch (args[0]) {
+            case "bid" -> {
+                lot.bidderID = Integer.parseInt(args[2]);
+                lot.amount = Double.parseDouble(args[3]);
+                lot.closeAt = Long.parseLong(args[4]);
+            }
+            case "proxy" -> {
+                lot.proxyID = Integer.parseInt(args[2]);
+                lot.proxyMax = Double.parseDouble(args[3]);
+            }
+            case "unproxy" -> lot.proxyID = Item.NO_BIDDER;
+            case "won" -> {
+                lot.won = true;
+                lot.bidderID = Integer.parseInt(args[2]);
+                lot.amount = Double.parseDouble(args[3]);
+                lot.proxyID = Item.NO_BIDDER;
+            }
+            case "delivered", "unsold" -> lots.remove(itemID);
+        }
+    }
+
+    private void flush(ArrayList<String> batch) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (String entry : batch) lines.append(entry).append('\n');
+
+        ByteBuffer buffer = ByteBuffer.wrap(
+                lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        while (buffer.hasRemaining()) channel.write(buffer);
+        channel.force(false);
+    }
+
+    /**
+     * Writes the shadow books to a new snapshot and starts an empty log on
+     * top of it. Runs on the writer thread between batches, so the shadow
+     * holds exactly what has been written.
+     * @throws IOException If the snapshot or log can not be written
+     */
+    private void compact() throws IOException {
+        generation++;
+
+        synchronized (lock) {
+            writeSnapshot(nextSnapshot);
+        }
+
+        writeLog(nextLog);
+        Files.move(nextSnapshot, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        Files.move(nextLog, log, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(log, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the shadow books as
+     *   generation G
+     *   item id initPrice name                       (queued, in order)
+     *   lot id initPrice name won bidder amount closeAt proxy proxyMax
+     * @param path File to write
+     * @throws IOException If the file can not be written
+     */
+    private void writeSnapshot(Path path) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(path.toFile());
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                     file, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("generation " + generation + "\n");
+
+            for (Item item : queued) {
+                out.write("item " + item.getId() + " " + item.getInitPrice() +
+                        " " + item.getName() + "\n");
+            }
+
+            for (Lot lot : lots.values()) {
+                out.write("lot " + lot.item.getId() + " " +
+                        lot.item.getInitPrice() + " " + lot.item.getName() +
+                        " " + lot.won + " " + lot.bidderID + " " + lot.amount +
+                        " " + lot.closeAt + " " + lot.proxyID + " " +
+                        lot.proxyMax + "\n");
+            }
+
+            out.flush();
+            file.getFD().sync();
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(snapshot,
+                StandardCharsets.UTF_8)) {
+            generation = Long.parseLong(reader.readLine().split(" ")[1]);
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] args = line.split(" ");
+                Item item = new Item(Integer.parseInt(args[1]), args[3],
+                        Double.parseDouble(args[2]));
+
+                if (args[0].equals("item")) {
+                    queued.add(item);
+                    continue;
+                }
+
+                Lot lot = new Lot(item);
+                lot.won = Boolean.parseBoolean(args[4]);
+                lot.bidderID = Integer.parseInt(args[5]);
+                lot.amount = Double.parseDouble(args[6]);
+                lot.closeAt = Long.parseLong(args[7]);
+                lot.proxyID = Integer.parseInt(args[8]);
+                lot.proxyMax = Double.parseDouble(args[9]);
+                lots.put(item.getId(), lot);
+            }
+        }
+    }
+
+    /**
+     * Writes an empty log for the current generation
+     * @param path File to write
+     * @throws IOException If the file can not be written
+     */
+    private void writeLog(Path path) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile())) {
+            out.write(("generation " + generation + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private static long readGeneration(Path path) {
+        if (!Files.exists(path)) return -1;
+
+        try (BufferedReader reader = Files.newBufferedReader(path,
+                StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+
+            if (header != null && header.startsWith("generation "))
+                return Long.parseLong(header.substring(11).trim());
+        } catch (IOException | NumberFormatException exc) {
+            System.err.println("Unreadable bid log " + path);
+        }
+
+        return -1;
+    }
+}
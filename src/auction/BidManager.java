@@ -1,272 +1,386 @@
 package auction;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles all the bidding activity on items for sale at the auction house.
  * Receives bid requests from agents, sends hold requests to the bank,
  * accepts the bids if the bank places the hold, or rejects the bid if the
  * hold could not be placed. When time is up on an item, the
+ *
+ * Agents can also register a maximum (proxy) bid with maxBid. The bank
+ * holds the maximum once; after that the bid manager raises the agent's
+ * bid by the minimum increment (-Dauction.minIncrement, default 1) each
+ * time someone else bids, up to the maximum, without asking the bank
+ * again. Only the current leader of a lot can have a standing proxy.
+ *
+ * The lots are split by item ID over -Dauction.bidWorkers BidWorkers
+ * (default one per core, at most 8). sendMessage routes every message to
+ * the worker that owns its lot, so independent lots are handled in
+ * parallel and each lot's messages keep their order. Hot lots can be
+ * sold as call auctions instead (-Dauction.callMillis, see BidWorker).
+ *
+ * Which items are open for bidding is up to the SaleWindow. Agents hear
+ * about lots opening and closing through versioned lotOpened and lotClosed
+ * messages, so a close costs the same however many lots are open.
+ *
+ * Every opening, leading bid and close is written to the BidLog, and a
+ * house restarted after a crash carries on with the recovered lots.
+ *
+ * Each AuctionHouse has its own bid manager and workers; the lot clocks
+ * run on the scheduler of the house's Engine.
  */
 public class BidManager implements Runnable {
-    private static final Map<String, Double> currBids = new HashMap<>();
-    private static final Map<String, Integer> highestBidders = new HashMap<>();
-    private static final Map<String, Integer> bidTimers = new HashMap<>();
-    private static final Map<String, Integer> itemWinners = new HashMap<>();
-    private static final BlockingQueue<String> inbox =
-            new ArrayBlockingQueue<>(20);
+    protected static final double MIN_INCREMENT =
+            Double.parseDouble(System.getProperty("auction.minIncrement", "1"));
+    private final AuctionHouse house;
+    private final Catalog catalog;
+    private final AtomicInteger activeLots = new AtomicInteger();
+    private volatile ItemsLine itemsLine = null;
+    private final BidWorker[] workers = new BidWorker[
+            Integer.getInteger("auction.bidWorkers",
+                    Math.min(8, Runtime.getRuntime().availableProcessors()))];
+    private final Thread[] threads = new Thread[workers.length];
+    private final Object publishLock = new Object();
+    private final LotScheduler scheduler;
+    private final SaleWindow window;
+    private final LongAdder callRounds = new LongAdder();
+    private final LongAdder callBids = new LongAdder();
+    private final LongAdder callHolds = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder coalescedResent = new LongAdder();
 
     /**
-     * Active object used to update the times remaining on current items
-     * that are up for auction and have bidding activity
+     * Creates the bid manager of a house. Lot deadlines are kept by the
+     * scheduler of the house's engine.
+     * @param house The house
      */
-    private final class BidTimer implements Runnable {
-        private final int maxTime;
-        private final List<String> itemsCopy;
-
-        /**
-         * Creates a new bid timer with the given parameters
-         * @param maxTime Time before an auction ends
-         * @param items List of auction items
-         */
-        public BidTimer(int maxTime, List<String> items) {
-            this.maxTime = maxTime;
-            itemsCopy = new ArrayList<>();
-            itemsCopy.addAll(items);
-        }
+    public BidManager(AuctionHouse house) {
+        this.house = house;
+        this.catalog = house.catalog();
+        this.scheduler = house.engine().scheduler();
+
+        for (int i = 0; i < workers.length; i++)
+            workers[i] = new BidWorker(house);
+
+        int maxOpen = Integer.getInteger("auction.maxConcurrentSales", 3);
+        window = new SaleWindow(house, maxOpen,
+                Long.getLong("auction.slotMillis", 0),
+                Integer.getInteger("auction.lotsPerSlot", maxOpen));
+    }
 
-        /**
-         * Waits for one second, then updates all times. If a time exceeds
-         * the max time, the item is won by the highest bidder
-         */
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    TimeUnit.SECONDS.sleep(1);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-
-                for (String item: itemsCopy) {
-                    try {
-                        int time = bidTimers.get(item);
-
-                        if (time + 1 >= maxTime) {
-                            timeUp(item);
-                            bidTimers.remove(item);
-                        }
-                        else bidTimers.put(item, time + 1);
-                    } catch (NullPointerException exc) {}
-                }
-            }
-        }
+    /**
+     * Puts recovered lots back on the clock and opens the first lots.
+     * Called once the house can reach its bid manager.
+     */
+    void start() {
+        restoreLots();
+
+        if (window.isSlotted()) Threads.start(window);
+        else window.fill(Integer.MAX_VALUE);
     }
 
     /**
-     * Creates a new bid manager object
+     * Puts the lots recovered from the bid log back on the clock, and their
+     * proxies back on their workers
      */
-    public BidManager() {
-        BidTimer timer = new BidTimer(30, Auction.getItems());
-        Thread t = new Thread(timer);
-        t.start();
+    private void restoreLots() {
+        for (Item item : catalog.openItems()) {
+            if (item.getHighestBidder() == Item.NO_BIDDER) {
+                scheduler.opened(house, item);
+                continue;
+            }
+
+            scheduler.restore(house, item);
+            lotOpened();
+        }
+
+        house.bidLog().forEachProxy((itemID, clientID, max) ->
+                workerOf(itemID).restoreProxy(itemID, clientID, max));
     }
 
     /**
-     * Thread loop checks for new messages to the bid manager
+     * Starts every worker but the first on its own thread, then runs the
+     * first one on this thread
      */
     @Override
     public void run() {
-        while (true) {
-            if (!inbox.isEmpty()) processInbox();
+        threads[0] = Thread.currentThread();
+        for (int i = 1; i < workers.length; i++)
+            threads[i] = Threads.start(workers[i]);
 
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+        workers[0].run();
+    }
+
+    /**
+     * Stops the workers of a house that has closed
+     */
+    void stop() {
+        for (Thread thread : threads) if (thread != null) thread.interrupt();
+    }
+
+    /**
+     * Called by the scheduler when a lot's deadline has passed
+     * @param item The lot
+     * @return False if the lot is still open
+     */
+    boolean timeUp(Item item) {
+        return workerOf(item.getId()).timeUp(item);
     }
 
     /**
      * @return True if bidding is currently taking place, otherwise false
      */
-    protected static boolean hasUnresolvedBids() {
-        return !currBids.isEmpty();
+    protected boolean hasUnresolvedBids() {
+        return activeLots.get() > 0;
     }
 
     /**
-     * Fetches the highest bid on an item, if any
-     * @param itemName Name of the item
-     * @return Current highest bid as a double value
-     * @throws NullPointerException If there is no highest bid for this item
+     * Sends a message to the worker that owns the lot it is about.
+     * Messages that are not about a lot go to the first worker.
+     * @param msg Message to the bid manager
      */
-    protected static double getHighestBid(String itemName)
-            throws NullPointerException {
-        Double value = currBids.get(itemName);
+    protected void sendMessage(String msg) {
+        String[] args = msg.split(" ");
+
+        int itemID = switch (args[0]) {
+            case "Bid", "MaxBid", "holdFailed" -> Integer.parseInt(args[2]);
+            case "holdSuccessful", "staleHold" -> Integer.parseInt(args[3]);
+            case "fundsTransferred" -> Integer.parseInt(args[1]);
+            default -> 0;
+        };
 
-        if (value != null) return value;
-        else throw new NullPointerException();
+        workerOf(itemID).sendMessage(msg);
     }
 
     /**
-     * Call this method when time is up for an item with bidding activity
-     * @param itemName Name of the item that has been won
+     * @param itemID ID of a lot
+     * @return The worker that owns the lot
      */
-    private synchronized void timeUp(String itemName) {
-        System.out.println("time up " + itemName);
-        int winnerID = highestBidders.get(itemName);
-        Auction.getItems().remove(itemName);
-        currBids.remove(itemName);
-        itemWinners.put(itemName, winnerID);
-        ClientConnection cc = Server.getClient(winnerID);
-        cc.sendMessage("itemWon " + itemName.substring(itemName.indexOf('/') + 1));
-        BankConnection.sendMessage("itemWon " + itemName.substring(itemName.indexOf('/') + 1) +  " " + winnerID);
-        Server.sendItemsUpdate(printItemsToLine());
+    private BidWorker workerOf(int itemID) {
+        return workers[Math.floorMod(itemID, workers.length)];
     }
 
     /**
-     * Sends a message to the bid manager
-     * @param msg Message to the bid manager
+     * Starts or extends the clock of a lot that has just been bid on
+     * @param item The lot
      */
-    protected static void sendMessage(String msg) {
-        inbox.add(msg);
+    void onBid(Item item) {
+        scheduler.onBid(house, item);
     }
 
     /**
-     * Handles every message currently in the inbox
+     * Counts a lot that got its first bid
      */
-    private synchronized void processInbox() {
-        while (!inbox.isEmpty()) {
-            String[] args = inbox.poll().split(" ");
-
-            //determine type of message
-            switch (args[0]) {
-                case "Bid" -> {
-                    String[] result = args[2].split("/");
-                    BankConnection.sendMessage("reqHold " + args[1] + " " +
-                            args[3] + " " + result[1]);
-                }
-                case "ReqItems" -> {
-                    int clientID = Integer.parseInt(args[1]);
-                    ClientConnection cc = Server.getClient(clientID);
-                    cc.sendMessage(printItemsToLine());
-                }
-                case "holdSuccessful" -> {
-                    System.out.println(args[1]);
-                    int bidderID = Integer.parseInt(args[1]);
-                    double bidAmt = Double.parseDouble(args[2]);
-                    placeBid(bidderID, args[3], bidAmt);
-                }
-                case "holdFailed" -> {
-                    int rejectedID = Integer.parseInt(args[1]);
-                    ClientConnection cc = Server.getClient(rejectedID);
-                    cc.sendMessage("invalidBid " + args[2] + " holdFailed");
-                }
-                case "fundsTransferred" -> {
-                    String item = "";
-
-                    for (String string : Auction.getItems()) {
-                        String[] arr = string.split("/");
-
-                        if (arr[1].equalsIgnoreCase(args[1])) {
-                            item = string;
-                            break;
-                        }
-                    }
-
-                    int winnerID = itemWinners.remove(item);
-                    ClientConnection winner = Server.getClient(winnerID);
-                    winner.sendMessage("itemDelivered " + args[1]);
-                }
-            }
+    void lotOpened() {
+        activeLots.incrementAndGet();
+    }
+
+    /**
+     * Takes a lot that has closed out of the catalog, tells every agent and
+     * lets the sale window open the next one
+     * @param item The lot
+     */
+    void lotClosed(Item item) {
+        activeLots.decrementAndGet();
+
+        synchronized (publishLock) {
+            catalog.close(item);
+            house.server().sendItemsUpdate("lotClosed " + item.getId() +
+                    " " + catalog.getVersion());
         }
+
+        window.onClose();
     }
 
     /**
-     * @return List of auction items currently for sale in a single string
+     * Opens the next queued item and tells every agent
+     * @return False if no item was left to open
      */
-    protected static String printItemsToLine() {
-        String itemsList = "auctionItems";
-
-        for (int index = 0; index < Auction.getItems().size() &&
-                index < Auction.getMaxConcurrentSales(); index++) {
-            String itemName = Auction.getItems().get(index);
-            itemsList += " " + itemName;
-            double currPrice;
-
-            try {
-                currPrice = BidManager.getHighestBid(itemName);
-            } catch (NullPointerException exc) {
-                currPrice = Auction.getInitPrice(itemName);
-            }
+    boolean openNext() {
+        synchronized (publishLock) {
+            Item item = catalog.openNext();
+
+            if (item == null) return false;
+
+            house.bidLog().append("open " + item.getId());
+            house.server().sendItemsUpdate("lotOpened " + item.getId() +
+                    " " + item.getName() + " " + item.getCurrentPrice() +
+                    " " + catalog.getVersion());
+            scheduler.opened(house, item);
+            return true;
+        }
+    }
 
-            itemsList += " " + currPrice;
+    /**
+     * Closes a lot nobody bid on, tells every agent and lets the sale
+     * window open the next one. The item is not sold.
+     * @param item The lot
+     */
+    void lotUnsold(Item item) {
+        synchronized (publishLock) {
+            catalog.close(item);
+            catalog.retire(item.getId());
+            house.bidLog().append("unsold " + item.getId());
+            house.server().sendItemsUpdate("lotClosed " + item.getId() +
+                    " " + catalog.getVersion());
         }
 
-        return itemsList;
+        window.onClose();
     }
 
     /**
-     * Places a new highest bid on an item for sale
-     * @param clientID ID number of the bid placer
-     * @param itemID ID number of the item
-     * @param amount Bid amount as a double value
+     * @return Most lots open at once, 0 for no limit
      */
-    private synchronized void placeBid(int clientID, String itemID,
-                                       double amount) {
-        ClientConnection cc = Server.getClient(clientID);
-        String item = "";
+    protected int getMaxConcurrentSales() {
+        return window.getMaxOpen();
+    }
 
-        for (String string : Auction.getItems()) {
-            String[] arr = string.split("/");
+    /**
+     * Counts a call book that has been cleared
+     * @param bids Number of bidders in the book
+     */
+    void callCleared(int bids) {
+        callRounds.increment();
+        callBids.add(bids);
+    }
 
-            if (arr[1].equalsIgnoreCase(itemID)) {
-                item = string;
-                break;
-            }
-        }
+    /**
+     * Counts a hold requested for the best bid of a call book
+     */
+    void callHoldRequested() {
+        callHolds.increment();
+    }
 
-        double currPrice;
+    /**
+     * @return True if hot lots are sold as call auctions
+     */
+    protected boolean isCallMode() {
+        return Long.getLong("auction.callMillis", 0) > 0;
+    }
+
+    /**
+     * @return Call books cleared, bids collected in them and holds
+     * requested for them
+     */
+    protected String getCallStats() {
+        return callRounds.sum() + " rounds, " + callBids.sum() +
+                " bids, " + callHolds.sum() + " holds";
+    }
+
+    /**
+     * Counts a bid held back because the bank is still holding the
+     * bidder's previous bid on the lot
+     */
+    void bidCoalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * Counts a held back bid that went on to the bank after all
+     */
+    void coalescedBidResent() {
+        coalescedResent.increment();
+    }
+
+    /**
+     * @return Bids held back by coalescing, and the hold round trips that
+     * saved
+     */
+    protected String getCoalesceStats() {
+        return getBidsCoalesced() + " bids, " + getHoldsSaved() +
+                " holds saved";
+    }
+
+    /**
+     * @return Bids that waited on a hold of the same agent on the same lot
+     */
+    protected long getBidsCoalesced() {
+        return coalesced.sum();
+    }
 
-        try {
-            currPrice = BidManager.getHighestBid(item);
-        } catch (NullPointerException exc) {
-            currPrice = Auction.getInitPrice(item);
+    /**
+     * @return Hold requests coalescing saved the bank
+     */
+    protected long getHoldsSaved() {
+        return coalesced.sum() - coalescedResent.sum();
+    }
+
+    /**
+     * @return Messages waiting in the inboxes of every worker
+     */
+    protected int getInboxDepth() {
+        int depth = 0;
+        for (BidWorker worker : workers) depth += worker.getInboxDepth();
+        return depth;
+    }
+
+    /**
+     * @return Inbox depth of each worker, e.g. "[0, 3, 1, 0]"
+     */
+    protected String getInboxDepths() {
+        int[] depths = new int[workers.length];
+        for (int i = 0; i < workers.length; i++)
+            depths[i] = workers[i].getInboxDepth();
+        return Arrays.toString(depths);
+    }
+
+    /**
+     * Records a new highest bid and tells every agent the new price. Bids,
+     * openings and closings on different workers are published one at a
+     * time, so agents get the messages in catalog version order.
+     * @param clientID ID number of the new leader
+     * @param item The item
+     * @param amount New price
+     */
+    void publish(int clientID, Item item, double amount) {
+        synchronized (publishLock) {
+            item.setHighestBid(clientID, amount);
+            long version = catalog.changed();
+            house.bidLog().append("bid " + item.getId() + " " + clientID + " " +
+                    amount + " " + item.getCloseAt());
+
+            // only the changed price goes out; agents that see a gap in
+            // the version numbers ask for the full list with ReqItems
+            house.server().sendItemsUpdate("itemDelta " + item.getId() +
+                    " " + amount + " " + version);
         }
+    }
 
-        if (amount > currPrice) {
-            System.out.println("bidPlaced " + item + " " + amount + " " + clientID);
-            cc.sendMessage("bidPlaced " + item.split("/")[1]);
-            bidTimers.put(item, -1);
-            Double lastBid = currBids.put(item, amount);
-            Integer outbidID = highestBidders.get(item);
-            highestBidders.remove(item);
-            highestBidders.put(item, clientID);
-            synchronized (this){
-            if (lastBid != null && outbidID != null && outbidID != clientID) {
-                ClientConnection outbidClient = Server.getClient(outbidID);
-                outbidClient.sendMessage("OutBid " + item.split("/")[1]);
-                outbidClient.sendMessage(printItemsToLine());
-                BankConnection.sendMessage("removeHold " + outbidID + " " +
-                        lastBid + " " + item.split("/")[1]);
-            }
+    /**
+     * Pre-built auctionItems message together with the catalog version it
+     * was built from
+     */
+    private record ItemsLine(long version, String line) {}
 
-                Server.sendItemsUpdate(printItemsToLine());
-            }
+    /**
+     * @return List of auction items currently for sale in a single string,
+     * "auctionItems version name/id price ...". The string is built once
+     * per catalog version and shared by every send until the catalog
+     * changes.
+     */
+    protected String printItemsToLine() {
+        ItemsLine cached = itemsLine;
+        long version = catalog.getVersion();
 
+        if (cached != null && cached.version() == version)
+            return cached.line();
 
+        StringBuilder itemsList = new StringBuilder("auctionItems ")
+                .append(version);
 
-        } else {
-            cc.sendMessage("invalidBid " + item.split("/")[1] + " amt2low");
-            BankConnection.sendMessage("removeHold " + clientID + " " +
-                    amount + " " + item.substring(item.indexOf('/')));
+        for (Item item : catalog.openItems()) {
+            itemsList.append(' ').append(item.getName()).append('/')
+                    .append(item.getId()).append(' ')
+                    .append(item.getCurrentPrice());
         }
+
+        // version was read before building, so a change made meanwhile
+        // leaves this entry stale and the next call rebuilds it
+        String line = itemsList.toString();
+        itemsLine = new ItemsLine(version, line);
+        return line;
     }
 }
@@ -0,0 +1,774 @@
+package auction;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One of the bid manager's workers. Each worker owns a share of the lots,
+ * chosen by item ID, and is the only thread that changes their bids, so
+ * lots on different workers are handled in parallel while the messages
+ * for one lot are still handled in the order they arrived. The worker
+ * also keeps the standing proxy bids of its lots, the correlation IDs
+ * of their proxy holds that are still waiting for the bank, and how much
+ * each lot's leader has committed from a Budget if it bid on one.
+ *
+ * With -Dauction.callMillis set, a lot that gets a second bid within that
+ * many milliseconds of the last one becomes hot and is sold as a call
+ * auction: its plain bids are collected in a CallBook for one interval and
+ * cleared together, so only the best bid of the interval is held at the
+ * bank and published, and the others are rejected at once. The lot stays
+ * hot while bids keep coming that fast. Proxy bids are never collected.
+ *
+ * An agent's plain bids on a lot are also coalesced while the bank has not
+ * answered the hold for its previous one (-Dauction.coalesceBids, default
+ * true): only the highest of them waits, and it goes to the bank once the
+ * answer is in, unless the lot has closed or its price has passed it
+ * meanwhile. Every bid still gets an answer: the lower of two waiting
+ * bids gets "invalidBid id superseded", and the one still waiting gets
+ * "closed" or "amt2low" when it can not go on, or "holdFailed" along with
+ * the hold it waited on.
+ */
+class BidWorker implements Runnable {
+    private static final long CALL_MILLIS =
+            Long.getLong("auction.callMillis", 0);
+    private static final boolean COALESCE = Boolean.parseBoolean(
+            System.getProperty("auction.coalesceBids", "true"));
+
+    private final AuctionHouse house;
+    private final BlockingQueue<String> inbox =
+            new ArrayBlockingQueue<>(1024);
+    private final IntMap<ProxyBid> proxies = new IntMap<>(16);
+    private final Set<Long> proxyHolds = new HashSet<>();
+    private final IntMap<Double> budgetCommits = new IntMap<>(16);
+    private final IntMap<Long> lastBids = new IntMap<>(16);
+    private final IntMap<CallBook> calls = new IntMap<>(16);
+    private final ArrayDeque<CallBook> callQueue = new ArrayDeque<>();
+    private final Map<Long, CallBook> callHolds = new HashMap<>();
+    private final Map<Long, OwnHold> ownHolds = new HashMap<>();
+    private final IntMap<Long> closedAt = new IntMap<>(16);
+
+    /**
+     * Maximum bid an agent registered on a lot it is leading
+     */
+    private record ProxyBid(int clientID, double max) {}
+
+    /**
+     * Hold the bank is working on for an agent's plain bid on a lot, and
+     * the latest bid the agent made on the lot since, or 0 for none
+     */
+    private record OwnHold(long correlation, double next) {}
+
+    /**
+     * Creates a worker for some of a house's lots
+     * @param house The house
+     */
+    BidWorker(AuctionHouse house) {
+        this.house = house;
+    }
+
+    /**
+     * Thread loop waits for new messages to the worker and handles them as
+     * soon as they arrive, and clears call books as they come due. A
+     * message that throws is reported and dropped; the worker keeps going.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                long wait = nextCallIn();
+                String msg = wait < 0 ? inbox.take() :
+                        inbox.poll(wait, TimeUnit.MILLISECONDS);
+
+                if (msg != null) processInbox(msg);
+                clearDueCalls();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException exc) {
+                System.err.println(house + ": bid worker error " + exc);
+            }
+        }
+    }
+
+    /**
+     * Queues a message for the worker
+     * @param msg Message to the worker
+     */
+    void sendMessage(String msg) {
+        try {
+            inbox.put(msg);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Number of messages waiting for the worker
+     */
+    int getInboxDepth() {
+        return inbox.size();
+    }
+
+    /**
+     * Called by the lot scheduler when an item's deadline has passed, or
+     * when an item nobody has bid on is to close unsold
+     * @param item The item that has been won
+     * @return False if a bid moved the deadline in the meantime and the
+     * item is still open
+     */
+    synchronized boolean timeUp(Item item) {
+        if (item.getCloseAt() > System.currentTimeMillis()) return false;
+
+        if (item.getHighestBidder() == Item.NO_BIDDER) {
+            // a first bid is on its way, the lot is not unsold after all
+            if (hasCall(item.getId()) ||
+                    house.bank().hasPendingHolds(item.getId()))
+                return false;
+
+            System.out.println("unsold " + item);
+            item.close();
+            lastBids.remove(item.getId());
+            house.metrics().lotClosed(item.getId());
+            house.bids().lotUnsold(item);
+            return true;
+        }
+
+        // bids collected before the deadline are still settled first
+        if (hasCall(item.getId())) return false;
+
+        System.out.println("time up " + item);
+        item.close();
+        proxies.remove(item.getId());
+        lastBids.remove(item.getId());
+        closedAt.put(item.getId(), System.nanoTime());
+        house.metrics().lotClosed(item.getId());
+        int winnerID = item.getWinner();
+
+        // the bank must not settle a lot the log could forget
+        house.bidLog().append("won " + item.getId() + " " + winnerID + " " +
+                item.getCurrentPrice());
+        if (!house.bidLog().sync()) {
+            // the hold stays, the restart reconciles it with what the log
+            // did get
+            System.err.println("Not settling " + item +
+                    ", the bid log could not write the win");
+            house.bids().lotClosed(item);
+            return true;
+        }
+
+        house.server().sendTo(winnerID, "itemWon " + item.getId());
+        house.bids().lotClosed(item);
+
+        // the price lets the bank settle a proxy hold at what was bid, and
+        // draw a budget win from the budget
+        Double commitment = budgetCommits.remove(item.getId());
+        String settlement = "itemWon " + item.getId() +  " " + winnerID +
+                " " + item.getCurrentPrice();
+
+        if (commitment != null) {
+            Budget.of(house, winnerID).settle(commitment,
+                    item.getCurrentPrice());
+            settlement += " budget";
+        }
+
+        house.bank().sendMessage(settlement);
+        return true;
+    }
+
+    /**
+     * Puts back a proxy bid recovered from the bid log
+     * @param itemID ID of the lot
+     * @param clientID ID number of the agent, who leads the lot
+     * @param max Maximum bid
+     */
+    synchronized void restoreProxy(int itemID, int clientID, double max) {
+        proxies.put(itemID, new ProxyBid(clientID, max));
+    }
+
+    /**
+     * Handles the given message, then every message currently in the inbox
+     * @param first Message already taken from the inbox
+     */
+    private synchronized void processInbox(String first) {
+        String msg = first;
+
+        do {
+            String[] args = msg.split(" ");
+
+            //determine type of message
+            switch (args[0]) {
+                case "Bid", "MaxBid" -> {
+                    int itemID = Integer.parseInt(args[2]);
+                    house.metrics().bidReceived(itemID);
+                    bid(Integer.parseInt(args[1]), itemID,
+                            Double.parseDouble(args[3]),
+                            args[0].equals("MaxBid"));
+                }
+                case "ReqItems" -> {
+                    int clientID = Integer.parseInt(args[1]);
+                    house.server().sendTo(clientID,
+                            house.bids().printItemsToLine());
+                }
+                case "holdSuccessful" -> {
+                    int bidderID = Integer.parseInt(args[1]);
+                    double bidAmt = Double.parseDouble(args[2]);
+                    int itemID = Integer.parseInt(args[3]);
+                    long correlation = args.length > 4 ?
+                            Long.parseLong(args[4]) : 0;
+                    boolean proxy = proxyHolds.remove(correlation);
+                    CallBook book = callHolds.remove(correlation);
+                    OwnHold own = removeOwnHold(bidderID, itemID, correlation);
+                    Item item = house.catalog().get(itemID);
+
+                    if (item == null) {
+                        // settled and retired while the bank was holding
+                        house.server().sendTo(bidderID, "invalidBid " +
+                                itemID + " closed");
+                        house.bank().sendMessage("removeHold " + args[1] +
+                                " " + args[2] + " " + args[3]);
+                        if (book != null)
+                            reject(itemID, book.rest(), "closed");
+                    } else if (book != null) {
+                        // the best bid of the interval is held, the rest lose
+                        placeBid(bidderID, item, bidAmt, false);
+                        reject(book.itemID(), book.rest(),
+                                item.isClosed() ? "closed" : "outbid");
+                    } else if (proxy)
+                        placeProxy(bidderID, item, bidAmt, false);
+                    else
+                        placeBid(bidderID, item, bidAmt, false);
+
+                    // the agent bid again meanwhile, its latest bid goes next
+                    if (own != null && own.next() > 0)
+                        resend(bidderID, itemID, own.next());
+                }
+                case "holdFailed" -> {
+                    int rejectedID = Integer.parseInt(args[1]);
+                    long correlation = args.length > 3 ?
+                            Long.parseLong(args[3]) : 0;
+                    proxyHolds.remove(correlation);
+                    CallBook book = callHolds.remove(correlation);
+                    // a later bid of the agent's would fail the same way
+                    OwnHold own = removeOwnHold(rejectedID,
+                            Integer.parseInt(args[2]), correlation);
+                    house.server().sendTo(rejectedID,
+                            "invalidBid " + args[2] + " holdFailed");
+                    if (own != null && own.next() > 0) {
+                        house.server().sendTo(rejectedID,
+                                "invalidBid " + args[2] + " holdFailed");
+                    }
+
+                    // the next best bid of the interval gets its turn
+                    if (book != null) tryNext(book);
+                }
+                case "staleHold" -> {
+                    int bidderID = Integer.parseInt(args[1]);
+                    int itemID = Integer.parseInt(args[3]);
+                    Item item = house.catalog().get(itemID);
+
+                    // the bank keeps one hold per bidder and item: if the
+                    // bidder leads on it, or a newer request for it is on
+                    // its way, removing it would take away a valid hold
+                    boolean heldByBank = item != null &&
+                            item.getHighestBidder() == bidderID &&
+                            budgetCommits.get(itemID) == null;
+                    if (!heldByBank &&
+                            !house.bank().hasPendingHold(bidderID, itemID)) {
+                        house.bank().sendMessage("removeHold " + args[1] +
+                                " " + args[2] + " " + args[3]);
+                    }
+                }
+                case "fundsTransferred" -> {
+                    Item item = house.catalog().retire(
+                            Integer.parseInt(args[1]));
+
+                    Long closed = closedAt.remove(Integer.parseInt(args[1]));
+                    if (closed != null)
+                        house.metrics().closeToSettlement().recordSince(closed);
+
+                    if (item != null) {
+                        house.bidLog().append("delivered " + args[1]);
+                        house.server().sendTo(item.getWinner(),
+                                "itemDelivered " + args[1]);
+                    }
+                }
+            }
+        } while ((msg = inbox.poll()) != null);
+    }
+
+    /**
+     * Handles a new bid or proxy maximum: collects it if the lot is hot,
+     * places it if the bidder's budget covers it, coalesces it if the bank
+     * is still holding the bidder's previous bid on the lot, and otherwise
+     * asks the bank to hold it
+     * @param bidderID ID number of the bidder
+     * @param itemID ID of the lot
+     * @param amount Bid amount, or the proxy's maximum
+     * @param proxy True for a proxy maximum
+     */
+    private void bid(int bidderID, int itemID, double amount, boolean proxy) {
+        Item item = house.catalog().get(itemID);
+
+        if (isOver(item)) {
+            house.server().sendTo(bidderID, "invalidBid " + itemID +
+                    " closed");
+        } else if (!proxy && isHot(itemID)) {
+            collect(bidderID, itemID, amount);
+        } else if (commit(bidderID, item, amount)) {
+            if (proxy) placeProxy(bidderID, item, amount, true);
+            else placeBid(bidderID, item, amount, true);
+        } else if (proxy) {
+            proxyHolds.add(house.bank().requestHold(bidderID, amount, itemID));
+        } else if (COALESCE) {
+            long key = ownKey(bidderID, itemID);
+            OwnHold own = ownHolds.get(key);
+
+            if (own != null) {
+                ownHolds.put(key, new OwnHold(own.correlation(),
+                        Math.max(own.next(), amount)));
+                house.bids().bidCoalesced();
+
+                // only the agent's best waiting bid goes on
+                if (own.next() > 0) {
+                    house.server().sendTo(bidderID, "invalidBid " + itemID +
+                            " superseded");
+                }
+            } else {
+                ownHolds.put(key, new OwnHold(house.bank().requestHold(
+                        bidderID, amount, itemID), 0));
+            }
+        } else {
+            house.bank().requestHold(bidderID, amount, itemID);
+        }
+    }
+
+    /**
+     * Sends on the latest bid an agent made while the bank held its
+     * previous one, unless the lot is gone or its price has passed it
+     * already
+     * @param bidderID ID number of the bidder
+     * @param itemID ID of the lot
+     * @param amount Latest bid
+     */
+    private void resend(int bidderID, int itemID, double amount) {
+        Item item = house.catalog().get(itemID);
+
+        if (isOver(item)) {
+            house.server().sendTo(bidderID, "invalidBid " + itemID +
+                    " closed");
+            return;
+        }
+        if (amount <= item.getCurrentPrice()) {
+            house.server().sendTo(bidderID,
+                    "invalidBid " + itemID + " amt2low");
+            return;
+        }
+
+        house.bids().coalescedBidResent();
+        bid(bidderID, itemID, amount, false);
+    }
+
+    /**
+     * Takes an agent's hold on a lot off the coalescing table once the bank
+     * has answered it
+     * @param bidderID ID number of the bidder
+     * @param itemID ID of the lot
+     * @param correlation Correlation ID of the answer
+     * @return The hold, or null if the answer is for another request
+     */
+    private OwnHold removeOwnHold(int bidderID, int itemID, long correlation) {
+        long key = ownKey(bidderID, itemID);
+        OwnHold own = ownHolds.get(key);
+
+        if (own == null || own.correlation() != correlation) return null;
+        return ownHolds.remove(key);
+    }
+
+    /**
+     * @param item A lot, null if it is gone
+     * @return True if the lot takes no more bids. A won lot keeps its item
+     * in the catalog until the bank has settled it.
+     */
+    private static boolean isOver(Item item) {
+        return item == null || item.isClosed();
+    }
+
+    /**
+     * Turns down a bid the bank held or the budget covered after its lot
+     * closed, and gives back what was reserved for it
+     * @param clientID ID number of the bidder
+     * @param item The closed lot
+     * @param amount Amount reserved (the bid or proxy maximum)
+     * @param onBudget True if it was committed against the bidder's budget
+     */
+    private void refuseClosed(int clientID, Item item, double amount,
+                              boolean onBudget) {
+        house.server().sendTo(clientID,
+                "invalidBid " + item.getId() + " closed");
+        release(clientID, item, amount, onBudget ? amount : null);
+    }
+
+    /**
+     * @param bidderID ID number of a bidder
+     * @param itemID ID of a lot
+     * @return Key of the pair in the coalescing table
+     */
+    private static long ownKey(int bidderID, int itemID) {
+        return ((long) bidderID << 32) | (itemID & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Places a new highest bid on an item for sale. If another agent has a
+     * standing proxy on the item that covers the bid, the proxy answers
+     * right away and the bidder is outbid.
+     * @param clientID ID number of the bid placer
+     * @param item The item
+     * @param amount Bid amount as a double value
+     * @param onBudget True if the bid is committed against the bidder's
+     *                 budget, false if the bank holds it
+     */
+    private void placeBid(int clientID, Item item,
+                          double amount, boolean onBudget) {
+        if (item.isClosed()) {
+            refuseClosed(clientID, item, amount, onBudget);
+            return;
+        }
+
+        double currPrice = item.getCurrentPrice();
+
+        if (amount > currPrice) {
+            System.out.println("bidPlaced " + item + " " + amount + " " + clientID);
+            house.server().sendTo(clientID, "bidPlaced " + item.getId());
+            ProxyBid standing = proxies.get(item.getId());
+
+            if (standing != null && standing.clientID() != clientID &&
+                    standing.max() >= amount) {
+                house.server().sendTo(clientID, "OutBid " + item.getId());
+                release(clientID, item, amount, onBudget ? amount : null);
+                setLeader(standing.clientID(), item,
+                        Math.min(standing.max(), amount + BidManager.MIN_INCREMENT));
+                return;
+            }
+
+            // a manual bid by the proxy's owner replaced its hold
+            if (standing != null && standing.clientID() == clientID)
+                removeProxy(item);
+
+            boolean wasLeader = item.getHighestBidder() == clientID;
+            setLeader(clientID, item, amount);
+            recordCommitment(clientID, item, amount, onBudget, wasLeader);
+        } else {
+            house.server().sendTo(clientID,
+                    "invalidBid " + item.getId() + " amt2low");
+            release(clientID, item, amount, onBudget ? amount : null);
+        }
+    }
+
+    /**
+     * Registers a maximum bid once the bank holds it, and bids the least
+     * needed to lead. Between two proxies the higher maximum leads at one
+     * increment above the other; on a tie the earlier proxy leads.
+     * @param clientID ID number of the agent
+     * @param item The item
+     * @param max Maximum bid, already held by the bank or committed
+     *            against the agent's budget
+     * @param onBudget True if the maximum is committed against the agent's
+     *                 budget
+     */
+    private void placeProxy(int clientID, Item item,
+                            double max, boolean onBudget) {
+        if (item.isClosed()) {
+            refuseClosed(clientID, item, max, onBudget);
+            return;
+        }
+
+        ProxyBid standing = proxies.get(item.getId());
+        double currPrice = item.getCurrentPrice();
+
+        if (standing != null && standing.clientID() != clientID) {
+            if (max <= standing.max()) {
+                house.server().sendTo(clientID, "bidPlaced " + item.getId());
+                house.server().sendTo(clientID, "OutBid " + item.getId());
+                release(clientID, item, max, onBudget ? max : null);
+
+                double raised = Math.min(standing.max(), max + BidManager.MIN_INCREMENT);
+                if (raised > currPrice)
+                    setLeader(standing.clientID(), item, raised);
+                return;
+            }
+
+            house.server().sendTo(clientID, "bidPlaced " + item.getId());
+            setLeader(clientID, item,
+                    Math.min(max, standing.max() + BidManager.MIN_INCREMENT));
+            putProxy(clientID, item, max);
+            recordCommitment(clientID, item, max, onBudget, false);
+        } else if (item.getHighestBidder() == clientID) {
+            // already leading, only the maximum changes
+            house.server().sendTo(clientID, "bidPlaced " + item.getId());
+            putProxy(clientID, item, max);
+            recordCommitment(clientID, item, max, onBudget, true);
+        } else if (max > currPrice) {
+            house.server().sendTo(clientID, "bidPlaced " + item.getId());
+            setLeader(clientID, item,
+                    Math.min(max, currPrice + BidManager.MIN_INCREMENT));
+            putProxy(clientID, item, max);
+            recordCommitment(clientID, item, max, onBudget, false);
+        } else {
+            house.server().sendTo(clientID,
+                    "invalidBid " + item.getId() + " amt2low");
+            release(clientID, item, max, onBudget ? max : null);
+        }
+    }
+
+    /**
+     * Makes the given agent the highest bidder at the given amount, starts
+     * or extends the lot's clock, releases the previous leader's hold and
+     * tells every agent the new price
+     * @param clientID ID number of the new leader
+     * @param item The item
+     * @param amount New price
+     */
+    private void setLeader(int clientID, Item item,
+                           double amount) {
+        long accepted = System.nanoTime();
+        Item.Bid previous = item.getLeadingBid();
+        double currPrice = previous.amount();
+        boolean hadBid = previous.bidderID() != Item.NO_BIDDER;
+        int outbidID = previous.bidderID();
+        house.bids().onBid(item);
+        if (!hadBid) house.bids().lotOpened();
+
+        if (hadBid && outbidID != clientID) {
+            ProxyBid standing = proxies.get(item.getId());
+            if (standing != null && standing.clientID() == outbidID)
+                removeProxy(item);
+
+            house.server().sendTo(outbidID, "OutBid " + item.getId());
+            release(outbidID, item, currPrice,
+                    budgetCommits.remove(item.getId()));
+        }
+
+        house.bids().publish(clientID, item, amount);
+        house.metrics().acceptToBroadcast().recordSince(accepted);
+    }
+
+    /**
+     * Registers the standing proxy of a lot's leader
+     * @param clientID ID number of the leader
+     * @param item The item
+     * @param max Maximum bid
+     */
+    private void putProxy(int clientID, Item item, double max) {
+        proxies.put(item.getId(), new ProxyBid(clientID, max));
+        house.bidLog().append("proxy " + item.getId() + " " + clientID +
+                " " + max);
+    }
+
+    /**
+     * Drops the standing proxy of a lot
+     * @param item The item
+     */
+    private void removeProxy(Item item) {
+        proxies.remove(item.getId());
+        house.bidLog().append("unproxy " + item.getId());
+    }
+
+    /**
+     * Reserves a bid against the bidder's budget if it has one that covers
+     * it. A bid on a lot the bidder already leads on its budget only needs
+     * the difference to what it has already committed there.
+     * @param clientID ID number of the bidder
+     * @param item The item
+     * @param amount Bid (or proxy maximum) to reserve
+     * @return False if the bid has to be held by the bank instead
+     */
+    private boolean commit(int clientID, Item item, double amount) {
+        Budget budget = Budget.of(house, clientID);
+
+        if (budget == null || amount <= item.getCurrentPrice()) return false;
+
+        Double committed = item.getHighestBidder() == clientID ?
+                budgetCommits.get(item.getId()) : null;
+
+        return budget.tryCommit(amount - (committed == null ? 0 : committed));
+    }
+
+    /**
+     * Notes how the new leader of a lot pays for its position
+     * @param clientID ID number of the leader
+     * @param item The item
+     * @param amount Amount reserved for the lot (the bid or proxy maximum)
+     * @param onBudget True if it was committed against the leader's budget
+     * @param wasLeader True if the leader already led the lot before
+     */
+    private void recordCommitment(int clientID, Item item, double amount,
+                                  boolean onBudget, boolean wasLeader) {
+        Double old = onBudget ? budgetCommits.put(item.getId(), amount) :
+                budgetCommits.remove(item.getId());
+
+        if (!wasLeader) return;
+
+        if (onBudget && old == null) {
+            // the lot was held by the bank until now
+            house.bank().sendMessage("removeHold " + clientID + " " +
+                    amount + " " + item.getId());
+        } else if (!onBudget && old != null) {
+            // a bank hold covers the lot now
+            Budget.of(house, clientID).tryCommit(-old);
+        }
+    }
+
+    /**
+     * Gives back what an agent reserved for a lot it no longer bids on
+     * @param clientID ID number of the agent
+     * @param item The item
+     * @param amount Amount of the bid
+     * @param commitment Amount committed against the agent's budget, or
+     *                   null if the bank holds the bid
+     */
+    private void release(int clientID, Item item, double amount,
+                         Double commitment) {
+        if (commitment != null) {
+            Budget.of(house, clientID).tryCommit(-commitment);
+        } else {
+            house.bank().sendMessage("removeHold " + clientID + " " +
+                    amount + " " + item.getId());
+        }
+    }
+
+    /**
+     * Tells whether a plain bid on a lot should go in a call book. A lot
+     * is hot while it has a book, or when the bid comes within the call
+     * interval of the lot's previous bid.
+     * @param itemID ID of the lot
+     * @return True if the bid should be collected
+     */
+    private boolean isHot(int itemID) {
+        if (CALL_MILLIS <= 0) return false;
+        if (calls.get(itemID) != null) return true;
+
+        long now = System.currentTimeMillis();
+        Long last = lastBids.put(itemID, now);
+        return last != null && now - last < CALL_MILLIS;
+    }
+
+    /**
+     * Adds a bid to the lot's call book, opening a book for the next
+     * interval if the lot has none
+     * @param clientID ID number of the bidder
+     * @param itemID ID of the lot
+     * @param amount Bid amount
+     */
+    private void collect(int clientID, int itemID, double amount) {
+        CallBook book = calls.get(itemID);
+
+        if (book == null) {
+            book = new CallBook(itemID,
+                    System.currentTimeMillis() + CALL_MILLIS);
+            calls.put(itemID, book);
+            callQueue.add(book);
+        }
+
+        book.add(clientID, amount);
+    }
+
+    /**
+     * @return Milliseconds until the next call book is due, or -1 if there
+     * are none
+     */
+    private synchronized long nextCallIn() {
+        CallBook first = callQueue.peek();
+
+        if (first == null) return -1;
+        return Math.max(1, first.due() - System.currentTimeMillis());
+    }
+
+    /**
+     * Clears every call book whose interval is over. Books all last one
+     * interval, so the queue is in order of their due times.
+     */
+    private synchronized void clearDueCalls() {
+        long now = System.currentTimeMillis();
+
+        while (!callQueue.isEmpty() && callQueue.peek().due() <= now) {
+            CallBook book = callQueue.poll();
+            calls.remove(book.itemID());
+            Item item = house.catalog().get(book.itemID());
+
+            house.bids().callCleared(book.size());
+            if (isOver(item)) {
+                reject(book.itemID(), book.rank(Double.MAX_VALUE), "closed");
+                continue;
+            }
+
+            reject(book.itemID(), book.rank(item.getCurrentPrice()),
+                    "amt2low");
+            tryNext(book);
+        }
+    }
+
+    /**
+     * Places the best bid of a cleared book that has not been tried yet.
+     * A bid the bidder's budget covers is placed at once; otherwise it is
+     * held at the bank first, and the book waits for the answer.
+     * @param book The book
+     */
+    private void tryNext(CallBook book) {
+        Item item = house.catalog().get(book.itemID());
+        CallBook.Call call;
+
+        while ((call = book.next()) != null) {
+            if (isOver(item)) {
+                house.server().sendTo(call.clientID(),
+                        "invalidBid " + book.itemID() + " closed");
+            } else if (call.amount() <= item.getCurrentPrice()) {
+                house.server().sendTo(call.clientID(),
+                        "invalidBid " + book.itemID() + " amt2low");
+            } else if (commit(call.clientID(), item, call.amount())) {
+                placeBid(call.clientID(), item, call.amount(), true);
+                reject(book.itemID(), book.rest(), "outbid");
+                return;
+            } else {
+                callHolds.put(house.bank().requestHold(call.clientID(),
+                        call.amount(), book.itemID()), book);
+                house.bids().callHoldRequested();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Turns down collected bids, which were never held or committed
+     * @param itemID ID of the lot
+     * @param calls The bids
+     * @param reason Reason given to the bidders
+     */
+    private void reject(int itemID, List<CallBook.Call> calls,
+                        String reason) {
+        for (CallBook.Call call : calls) {
+            house.server().sendTo(call.clientID(),
+                    "invalidBid " + itemID + " " + reason);
+        }
+    }
+
+    /**
+     * @param itemID ID of a lot
+     * @return True if the lot has bids that are collected or cleared but
+     * not placed yet
+     */
+    private boolean hasCall(int itemID) {
+        if (calls.get(itemID) != null) return true;
+
+        for (CallBook book : callHolds.values())
+            if (book.itemID() == itemID) return true;
+
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+package auction;
+
+/**
+ * A bidding budget an agent has pre-authorized with the bank for this
+ * auction house, held by the bank as one bulk hold. Bids made on the budget
+ * are committed against it here, so they need no bank round trip, and being
+ * outbid simply gives the commitment back. The bank only hears about the
+ * budget when a lot is won on it (the price is drawn from the hold at
+ * settlement) and when the agent leaves (the uncommitted rest is released).
+ * A bid the budget can not cover falls back to a normal hold. Budgets belong
+ * to their AuctionHouse; a closed budget leaves the house's registry once
+ * nothing is committed on it any more, and is opened again if the agent
+ * comes back and is granted more while it still has commitments.
+ */
+public class Budget {
+    private final AuctionHouse house;
+    private final int clientID;
+    private double total = 0;
+    private double committed = 0;
+    private boolean closed = false;
+
+    /**
+     * Commitments smaller than this (half a cent) are rounding left over
+     * from adding and taking back doubles
+     */
+    private static final double NOTHING = 0.005;
+
+    /**
+     * Creates a new, empty budget
+     * @param house House the budget is for
+     * @param clientID ID of the agent
+     */
+    private Budget(AuctionHouse house, int clientID) {
+        this.house = house;
+        this.clientID = clientID;
+    }
+
+    /**
+     * @param house An auction house
+     * @param clientID ID of an agent
+     * @return The agent's budget at the house, or null if it has none
+     */
+    protected static Budget of(AuctionHouse house, int clientID) {
+        return house.budgets().get(clientID);
+    }
+
+    /**
+     * Asks the bank to hold more of the agent's money for bidding here
+     * @param house House the budget is for
+     * @param clientID ID of the agent
+     * @param amount Amount to add to the budget
+     */
+    protected static void request(AuctionHouse house, int clientID,
+                                  double amount) {
+        house.bank().sendMessage("reqBudget " + clientID + " " + amount);
+    }
+
+    /**
+     * Called when the bank has placed a budget hold
+     * @param house House the budget is for
+     * @param clientID ID of the agent
+     * @param amount Amount added to the budget
+     */
+    protected static void granted(AuctionHouse house, int clientID,
+                                  double amount) {
+        while (true) {
+            Budget budget = house.budgets().computeIfAbsent(clientID,
+                    id -> new Budget(house, id));
+
+            synchronized (budget) {
+                // closed and taken out of the registry meanwhile
+                if (house.budgets().get(clientID) != budget) continue;
+
+                // the agent left while the bank was answering
+                if (house.server().getClient(clientID) == null) {
+                    house.bank().sendMessage("releaseBudget " + clientID +
+                            " " + amount);
+                    house.server().sendTo(clientID, "budgetDenied " + amount);
+                    budget.retireIfDone();
+                    return;
+                }
+
+                // the agent came back to a budget it still has lots on
+                budget.closed = false;
+                budget.total += amount;
+            }
+
+            house.server().sendTo(clientID, "budgetGranted " + amount);
+            return;
+        }
+    }
+
+    /**
+     * Gives the uncommitted part of an agent's budget back to the bank.
+     * Commitments on lots the agent still leads stay until the lots close
+     * or the agent is outbid.
+     * @param house House the budget is for
+     * @param clientID ID of the agent
+     */
+    protected static void close(AuctionHouse house, int clientID) {
+        Budget budget = house.budgets().get(clientID);
+
+        if (budget == null) return;
+
+        synchronized (budget) {
+            budget.closed = true;
+            double unused = budget.total - budget.committed;
+
+            if (unused > 0) {
+                budget.total -= unused;
+                house.bank().sendMessage("releaseBudget " + clientID +
+                        " " + unused);
+            }
+
+            budget.retireIfDone();
+        }
+    }
+
+    /**
+     * Takes a budget out of the house's registry once it is closed (or was
+     * never funded) and nothing is committed on it, so a returning agent
+     * starts on a new one. Called with the budget's lock held.
+     */
+    private void retireIfDone() {
+        if (committed < NOTHING && (closed || total < NOTHING)) {
+            closed = true;
+            house.budgets().remove(clientID, this);
+        }
+    }
+
+    /**
+     * Reserves part of the budget for a bid, or gives part of it back
+     * @param amount Amount to reserve, negative to give back
+     * @return False if the budget can not cover the amount (nothing is
+     * reserved then)
+     */
+    protected synchronized boolean tryCommit(double amount) {
+        if (amount > 0 && (closed || committed + amount > total))
+            return false;
+
+        committed += amount;
+
+        // a closed budget hands back to the bank whatever is freed
+        if (amount < 0 && closed) {
+            total += amount;
+            house.bank().sendMessage("releaseBudget " + clientID + " " +
+                    -amount);
+            retireIfDone();
+        }
+
+        return true;
+    }
+
+    /**
+     * Settles a lot won on the budget. The bank draws the price from the
+     * budget hold when it is told about the win.
+     * @param commitment Amount that was reserved for the lot
+     * @param price Final price of the lot
+     */
+    protected synchronized void settle(double commitment, double price) {
+        committed -= commitment;
+        total -= price;
+
+        double unused = total - committed;
+        if (closed && unused > 0) {
+            total -= unused;
+            house.bank().sendMessage("releaseBudget " + clientID + " " +
+                    unused);
+        }
+
+        if (closed) retireIfDone();
+    }
+
+    /**
+     * @return Amount of the budget not reserved for any lot
+     */
+    protected synchronized double getAvailable() {
+        return total - committed;
+    }
+}
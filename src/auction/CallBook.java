@@ -0,0 +1,108 @@
+package auction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bids on one hot lot collected during one call-auction interval. Only an
+ * agent's best bid of the interval counts, and between equal bids the one
+ * that came first wins. When the interval is over the book is cleared in
+ * one step: the best bid goes on to the bank, and the rest wait in order in
+ * case its hold fails, until one is placed and the others are rejected
+ * together.
+ */
+class CallBook {
+    private final int itemID;
+    private final long due;
+    private final Map<Integer, Double> bids = new LinkedHashMap<>();
+    private final ArrayDeque<Call> ranked = new ArrayDeque<>();
+
+    /**
+     * A bid in the book
+     * @param clientID ID number of the bidder
+     * @param amount Bid amount
+     */
+    record Call(int clientID, double amount) {}
+
+    /**
+     * Creates an empty book
+     * @param itemID ID of the lot
+     * @param due Time in milliseconds the book is cleared
+     */
+    CallBook(int itemID, long due) {
+        this.itemID = itemID;
+        this.due = due;
+    }
+
+    /**
+     * @return ID of the lot
+     */
+    int itemID() {
+        return itemID;
+    }
+
+    /**
+     * @return Time in milliseconds the book is cleared
+     */
+    long due() {
+        return due;
+    }
+
+    /**
+     * Adds a bid. A bidder's lower bids in the same interval are dropped.
+     * @param clientID ID number of the bidder
+     * @param amount Bid amount
+     */
+    void add(int clientID, double amount) {
+        bids.merge(clientID, amount, Math::max);
+    }
+
+    /**
+     * @return Number of bidders in the book
+     */
+    int size() {
+        return bids.size();
+    }
+
+    /**
+     * Ranks the bids for clearing, best first
+     * @param price Current price of the lot
+     * @return The bids that do not beat the price, which are out already
+     */
+    List<Call> rank(double price) {
+        List<Call> all = new ArrayList<>();
+        List<Call> tooLow = new ArrayList<>();
+
+        for (Map.Entry<Integer, Double> bid : bids.entrySet()) {
+            Call call = new Call(bid.getKey(), bid.getValue());
+
+            if (call.amount() > price) all.add(call);
+            else tooLow.add(call);
+        }
+
+        // stable, so the earlier of two equal bids stays ahead
+        all.sort(Comparator.comparingDouble(Call::amount).reversed());
+        ranked.addAll(all);
+        return tooLow;
+    }
+
+    /**
+     * @return The best bid that has not been tried yet, or null
+     */
+    Call next() {
+        return ranked.poll();
+    }
+
+    /**
+     * @return The bids still waiting, which lost the interval
+     */
+    List<Call> rest() {
+        List<Call> rest = new ArrayList<>(ranked);
+        ranked.clear();
+        return rest;
+    }
+}
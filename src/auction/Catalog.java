@@ -0,0 +1,214 @@
+package auction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalog of the items sold by an auction house. Items wait in a queue in
+ * sale order until the SaleWindow opens them; open lots are kept in the
+ * order they opened. There is an index by ID and an index of the open lots
+ * by (case insensitive) name, so every lookup on the bid path is a single
+ * hash probe, and opening or closing a lot costs the same no matter how
+ * many lots are open. Closed items leave the open lots and the name index
+ * but stay in the ID index until they have been paid for and delivered.
+ *
+ * Every change to the sale order or to a price bumps the catalog version,
+ * which lets readers cache anything built from the catalog until the
+ * version moves on. The version is also the sequence number agents use to
+ * spot missed itemDelta messages.
+ */
+public class Catalog {
+    private volatile long version = 0;
+    private final ArrayDeque<Item> queued = new ArrayDeque<>();
+    private final Map<Integer, Item> open = new LinkedHashMap<>();
+    private final IntMap<Item> byId = new IntMap<>(16);
+    private final Map<String, Item> byName = new HashMap<>();
+
+    /**
+     * Adds an item to the end of the queue
+     * @param item Item to add
+     * @throws IllegalArgumentException If the ID is already used
+     */
+    protected synchronized void add(Item item) {
+        if (byId.get(item.getId()) != null)
+            throw new IllegalArgumentException("Duplicate item ID " +
+                    item.getId());
+
+        queued.add(item);
+        byId.put(item.getId(), item);
+        changed();
+    }
+
+    /**
+     * Adds items to the end of the queue in one step
+     * @param added Items to add, in sale order
+     * @throws IllegalArgumentException If an ID is already used; the items
+     * before it have been added
+     */
+    protected synchronized void addAll(List<Item> added) {
+        byId.reserve(byId.size() + added.size());
+
+        for (Item item : added) {
+            if (byId.get(item.getId()) != null)
+                throw new IllegalArgumentException("Duplicate item ID " +
+                        item.getId());
+
+            queued.add(item);
+            byId.put(item.getId(), item);
+        }
+
+        changed();
+    }
+
+    /**
+     * Puts back a lot recovered from the bid log, either open for bidding
+     * or closed and waiting for the bank to settle it
+     * @param item The lot
+     * @param isOpen True if the lot is still open
+     * @throws IllegalArgumentException If the ID is already used
+     */
+    protected synchronized void restore(Item item, boolean isOpen) {
+        if (byId.get(item.getId()) != null)
+            throw new IllegalArgumentException("Duplicate item ID " +
+                    item.getId());
+
+        byId.put(item.getId(), item);
+
+        if (isOpen) {
+            open.put(item.getId(), item);
+            byName.putIfAbsent(item.getName().toLowerCase(), item);
+        }
+
+        changed();
+    }
+
+    /**
+     * Fetches an item by its ID
+     * @param id ID of the item
+     * @return The item, or null if there is no such item
+     */
+    protected synchronized Item get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Fetches an open lot by its name
+     * @param name Name of the item, ignoring case
+     * @return The item, or null if there is no such item
+     */
+    protected synchronized Item find(String name) {
+        return byName.get(name.toLowerCase());
+    }
+
+    /**
+     * Opens the next queued item for bidding
+     * @return The item, or null if no item is queued
+     */
+    protected synchronized Item openNext() {
+        Item item = queued.poll();
+
+        if (item == null) return null;
+
+        open.put(item.getId(), item);
+        byName.putIfAbsent(item.getName().toLowerCase(), item);
+        changed();
+        return item;
+    }
+
+    /**
+     * Takes a closed item out of the open lots. It can still be found by
+     * ID until it is retired.
+     * @param item Item that has closed
+     */
+    protected synchronized void close(Item item) {
+        open.remove(item.getId());
+
+        if (byName.get(item.getName().toLowerCase()) == item)
+            byName.remove(item.getName().toLowerCase());
+
+        changed();
+    }
+
+    /**
+     * Forgets a closed item once it has been delivered
+     * @param id ID of the item
+     * @return The retired item, or null if there was no such item
+     */
+    protected synchronized Item retire(int id) {
+        return byId.remove(id);
+    }
+
+    /**
+     * @return Copy of the open lots in the order they opened
+     */
+    protected synchronized List<Item> openItems() {
+        return new ArrayList<>(open.values());
+    }
+
+    /**
+     * @return Copy of the queued items in sale order
+     */
+    protected synchronized List<Item> queuedItems() {
+        return new ArrayList<>(queued);
+    }
+
+    /**
+     * @return Number of lots open for bidding
+     */
+    protected synchronized int openCount() {
+        return open.size();
+    }
+
+    /**
+     * @return Number of items waiting to open
+     */
+    protected synchronized int queuedCount() {
+        return queued.size();
+    }
+
+    /**
+     * @return Number of items still for sale, open or queued
+     */
+    protected synchronized int size() {
+        return open.size() + queued.size();
+    }
+
+    /**
+     * @return True if every item has been sold
+     */
+    protected synchronized boolean isEmpty() {
+        return open.isEmpty() && queued.isEmpty();
+    }
+
+    /**
+     * Randomizes the order of the queued items
+     */
+    protected synchronized void shuffle() {
+        List<Item> order = new ArrayList<>(queued);
+        Collections.shuffle(order);
+        queued.clear();
+        queued.addAll(order);
+        changed();
+    }
+
+    /**
+     * @return Current version of the catalog
+     */
+    protected long getVersion() {
+        return version;
+    }
+
+    /**
+     * Moves the catalog to a new version. Called whenever a lot opens or
+     * closes or the price of an item changes.
+     * @return The new version
+     */
+    protected synchronized long changed() {
+        return ++version;
+    }
+}
@@ -0,0 +1,207 @@
+package auction;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Loads the items file into the catalog. Each line is an item name of one
+ * or more words followed by its starting price ("gaming chair 75"); the
+ * words are joined with dashes, and a price that is not a number becomes
+ * DEFAULT_PRICE. Blank lines are skipped. Items get their line number as
+ * ID, so IDs never collide however large the file is.
+ *
+ * The file is read in one buffered pass. With -Dauction.parallelLoad=true
+ * the lines are parsed on every core. After a load the items are written to
+ * a binary cache next to the file (name + ".cache"), tagged with the size
+ * and modification time of the file; the next start reads the cache
+ * instead of parsing text, as long as the file has not changed. A cache
+ * record is the ID, the UTF-8 name behind a 2 byte length, and the price.
+ */
+public class CatalogLoader {
+    protected static final double DEFAULT_PRICE = 50.0;
+
+    private static final int MAGIC = 0x43415447;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private CatalogLoader() {}
+
+    /**
+     * Reads the items in the given file, from its cache if it is current
+     * @param file Items file
+     * @return The items in file order
+     * @throws IOException If the file can not be read
+     */
+    protected static List<Item> load(File file) throws IOException {
+        File cache = new File(file.getPath() + ".cache");
+        List<Item> items = readCache(cache, file);
+
+        if (items != null) return items;
+
+        items = parse(file, Boolean.getBoolean("auction.parallelLoad"));
+
+        try {
+            writeCache(cache, file, items);
+        } catch (IOException exc) {
+            // only a slower start next time
+            System.err.println("Unable to write item cache " + cache);
+        }
+
+        return items;
+    }
+
+    /**
+     * Parses an items file
+     * @param file Items file
+     * @param parallel True to parse the lines on every core
+     * @return The items in file order
+     * @throws IOException If the file can not be read
+     */
+    protected static List<Item> parse(File file, boolean parallel)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file),
+                BUFFER_SIZE)) {
+            String in;
+
+            while ((in = br.readLine()) != null) lines.add(in);
+        }
+
+        IntStream ids = IntStream.range(0, lines.size());
+        if (parallel) ids = ids.parallel();
+
+        return ids.mapToObj(id -> parseLine(id, lines.get(id)))
+                .filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Parses one line of an items file
+     * @param id ID to give the item
+     * @param line Line of the file
+     * @return The item, or null for a blank line
+     */
+    private static Item parseLine(int id, String line) {
+        String trimmed = line.trim();
+        int last = trimmed.lastIndexOf(' ');
+
+        if (trimmed.isEmpty()) return null;
+
+        // a single word is the name, at the default price
+        if (last < 0) return new Item(id, trimmed, DEFAULT_PRICE);
+
+        double startBid;
+        try {
+            startBid = Double.parseDouble(trimmed.substring(last + 1));
+        } catch (NumberFormatException exc) {
+            startBid = DEFAULT_PRICE;
+        }
+
+        return new Item(id, joinWords(trimmed, last), startBid);
+    }
+
+    /**
+     * @param line Trimmed line of an items file
+     * @param end Index of the space before the price
+     * @return The words before end, joined with dashes
+     */
+    private static String joinWords(String line, int end) {
+        StringBuilder name = new StringBuilder(end);
+
+        for (int a = 0; a < end; a++) {
+            char c = line.charAt(a);
+
+            if (c != ' ') name.append(c);
+            else if (name.charAt(name.length() - 1) != '-') name.append('-');
+        }
+
+        // drop the dash left by the spaces before the price
+        int length = name.length();
+        if (name.charAt(length - 1) == '-') name.setLength(length - 1);
+
+        return name.toString();
+    }
+
+    /**
+     * Reads the cached items of a file
+     * @param cache Cache file
+     * @param source Items file the cache was built from
+     * @return The cached items, or null if there is no cache or the file
+     * has changed since it was written
+     */
+    private static List<Item> readCache(File cache, File source) {
+        if (!cache.isFile()) return null;
+
+        try {
+            byte[] bytes = Files.readAllBytes(cache.toPath());
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+
+            if (in.getInt() != MAGIC || in.getInt() != VERSION ||
+                    in.getLong() != source.length() ||
+                    in.getLong() != source.lastModified()) return null;
+
+            int count = in.getInt();
+            List<Item> items = new ArrayList<>(count);
+
+            for (int a = 0; a < count; a++) {
+                int id = in.getInt();
+                int length = in.getShort() & 0xffff;
+                String name = new String(bytes, in.position(), length,
+                        StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+                items.add(new Item(id, name, in.getDouble()));
+            }
+
+            return items;
+        } catch (IOException | BufferUnderflowException |
+                 IllegalArgumentException exc) {
+            System.err.println("Ignoring unreadable item cache " + cache);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the items of a file to its cache
+     * @param cache Cache file
+     * @param source Items file the items were read from
+     * @param items The items
+     * @throws IOException If the cache can not be written
+     */
+    private static void writeCache(File cache, File source, List<Item> items)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(cache),
+                        BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(items.size());
+
+            for (Item item : items) {
+                byte[] name = item.getName().getBytes(StandardCharsets.UTF_8);
+
+                if (name.length > 0xffff)
+                    throw new IOException("Item name too long: " + item);
+
+                out.writeInt(item.getId());
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeDouble(item.getInitPrice());
+            }
+        }
+    }
+}
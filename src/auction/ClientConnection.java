@@ -11,25 +11,32 @@ import java.net.Socket;
  * house server. Handles communication between an agent and the auction house.
  */
 public class ClientConnection implements Runnable {
+    private final AuctionHouse house;
     private int clientID = -1;
     private final Socket socket;
     private final PrintWriter toClient;
     private final BufferedReader fromClient;
+    private final Outbox outbox;
 
     /**
      * Creates a new client connection object with the given parameters
+     * @param house House the agent connected to
      * @param clientSocket Socket connection activated by the client
      * @throws IOException If an error occurs fetching the I/O streams from
      * the client's socket connection
      */
-    public ClientConnection(Socket clientSocket)
+    public ClientConnection(AuctionHouse house, Socket clientSocket)
             throws IOException {
+        this.house = house;
         this.socket = clientSocket;
-        toClient = new PrintWriter(socket.getOutputStream(),true);
+        toClient = new PrintWriter(socket.getOutputStream());
         InputStreamReader isr =
                 new InputStreamReader(socket.getInputStream());
         fromClient = new BufferedReader(isr);
-        toClient.println(BidManager.printItemsToLine());
+        outbox = new Outbox(toClient, house.bids()::printItemsToLine,
+                this::disconnect);
+        Threads.start(outbox);
+        outbox.offer(house.bids().printItemsToLine());
     }
 
     /**
@@ -40,41 +47,41 @@ public class ClientConnection implements Runnable {
     public void run() {
         String input, output;
 
-        while (!socket.isClosed() && !Auction.getItems().isEmpty()) {
-            try {
-                Thread.sleep(100);
-            }catch (InterruptedException exc){
-                Thread.currentThread().interrupt();
-            }
-
+        while (!socket.isClosed() && !house.catalog().isEmpty()) {
             try {
                 input = fromClient.readLine();
             } catch (IOException exc) {
                 input = null;
             }
 
-            if (input != null) {
-                output = processClientRequest(input);
+            // end of stream, the other side has gone away
+            if (input == null) break;
 
-                if (output != null) {
-                    toClient.println(output);
-                    output = null;
-                }
+            output = processClientRequest(input, System.nanoTime());
+
+            if (output != null) {
+                outbox.offer(output);
+                output = null;
             }
         }
 
-        if (!socket.isClosed() && Auction.getItems().isEmpty()) {
-            toClient.println("auctionClosing soldOut");
-        } else Server.removeClient(clientID);
+        if (!socket.isClosed() && house.catalog().isEmpty()) {
+            outbox.offer("auctionClosing soldOut");
+        } else house.server().removeClient(clientID);
+
+        if (clientID != -1) Budget.close(house, clientID);
+        outbox.close();
     }
 
     /**
      * Processes new input from the client
      * @param str Client input
+     * @param received System.nanoTime when the input was read
      * @return Output message to be returned to the client (null if there
      * is no message to be returned)
      */
-    private synchronized String processClientRequest(String str) {
+    private synchronized String processClientRequest(String str,
+                                                     long received) {
         String status = "";
 
         //do bid processing here
@@ -85,39 +92,47 @@ public class ClientConnection implements Runnable {
                 double bidAmount = Double
                         .parseDouble(args[args.length - 1]);
 
-                String item = "";
+                Item item = house.catalog().find(args[1]);
+                System.out.println("item " + item);
 
-                for (String string : Auction.getItems()) {
-                    String[] arr1 = string.split("/");
+                if (item == null) {
+                    status = null;
+                } else if (bidAmount > item.getCurrentPrice()) {
+                    house.bids().sendMessage("Bid " + clientID + " " +
+                            item.getId() + " " + bidAmount);
+                    status = null;
+                } else status = "invalidBid " + item.getId() + " amt2low";
 
-                    if (arr1[0].equalsIgnoreCase(args[1])) {
-                        item = string;
-                        break;
-                    }
-                }
-                System.out.println("item " + item);
-                double currPrice;
+                house.metrics().receiveToValidate().recordSince(received);
+            }
+            case "maxBid" -> {
+                double maxAmount = Double
+                        .parseDouble(args[args.length - 1]);
 
-                try {
-                    currPrice = BidManager.getHighestBid(item);
-                } catch (NullPointerException exc) {
-                    currPrice = Auction.getInitPrice(item);
-                }
+                Item item = house.catalog().find(args[1]);
 
-                if (bidAmount > currPrice) {
-                    BidManager.sendMessage("Bid " + clientID + " " +
-                            item + " " + bidAmount);
+                if (item == null) {
+                    status = null;
+                } else if (maxAmount > item.getCurrentPrice()) {
+                    house.bids().sendMessage("MaxBid " + clientID + " " +
+                            item.getId() + " " + maxAmount);
                     status = null;
-                } else status = "invalidBid " + item.split("/")[1] +
-                        " amt2low";
+                } else status = "invalidBid " + item.getId() + " amt2low";
+
+                house.metrics().receiveToValidate().recordSince(received);
+            }
+            case "budget" -> {
+                Budget.request(house, clientID,
+                        Double.parseDouble(args[1]));
+                status = null;
             }
             case "ReqItems" -> {
-                BidManager.sendMessage(args[0] + " " + clientID);
+                house.bids().sendMessage(args[0] + " " + clientID);
                 status = null;
             }
             case "agentID" -> {
                 clientID = Integer.parseInt(args[1]);
-                Server.addClient(clientID,this);
+                house.server().addClient(clientID,this);
                 status = null;
             }
         }
@@ -126,11 +141,32 @@ public class ClientConnection implements Runnable {
     }
 
     /**
-     * Sends a message to the client as soon as possible
+     * Queues a message to the client. The client's writer thread sends it
+     * as soon as possible; the caller never waits on the socket.
      * @param msg Message to the client
      */
-    protected synchronized void sendMessage(String msg) {
-        toClient.println(msg);
+    protected void sendMessage(String msg) {
+        outbox.offer(msg);
+    }
+
+    /**
+     * @return Number of messages waiting to be sent to the client
+     */
+    protected int getQueueDepth() {
+        return outbox.depth();
+    }
+
+    /**
+     * Drops a client that has fallen too far behind on its messages
+     */
+    private void disconnect() {
+        System.err.println("Client " + clientID + " is too slow, " +
+                "disconnecting");
+        house.server().removeClient(clientID);
+
+        try {
+            socket.close();
+        } catch (IOException exc) {}
     }
 
     /**
@@ -139,6 +175,7 @@ public class ClientConnection implements Runnable {
      * @throws IOException If an error occurs while closing the socket
      */
     protected synchronized void close(String reason) throws IOException {
+        outbox.close();
         toClient.println("auctionClosing " + reason);
         toClient.close();
         fromClient.close();
@@ -0,0 +1,211 @@
+package auction;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * What the auction houses of one JVM share: a single accept loop for every
+ * house's port, one LotScheduler for every lot, and one BankLink that
+ * carries every house's bank session. A house plugs in with add and leaves
+ * with remove; an exception while serving one house is reported to that
+ * house and never stops the loop for the others. The engine's
+ * MetricsEndpoint reports on every house.
+ */
+public class Engine implements Runnable {
+    private final Selector selector;
+    private final Queue<AuctionHouse> pending = new ConcurrentLinkedQueue<>();
+    private final List<AuctionHouse> houses = new CopyOnWriteArrayList<>();
+    private final LotScheduler scheduler;
+    private final BankLink bankLink;
+    private final MetricsEndpoint metrics = new MetricsEndpoint(this);
+
+    /**
+     * Creates a new engine connected to the given bank. Lots close
+     * closeAfterMillis (-Dauction.closeAfterMillis, default 30000) after
+     * their first bid; a bid within softCloseMillis
+     * (-Dauction.softCloseMillis, default 30000) of the deadline extends
+     * the lot to softCloseMillis from that bid. A lot nobody bids on
+     * closes unsold unsoldMillis (-Dauction.unsoldMillis, default 120000,
+     * 0 for never) after it opened.
+     * @param bankHost Host name of the bank's server
+     * @param bankPort Port number of the bank's server
+     * @throws IOException If the bank can not be reached
+     */
+    public Engine(String bankHost, int bankPort) throws IOException {
+        selector = Selector.open();
+        bankLink = new BankLink(bankHost, bankPort);
+        scheduler = new LotScheduler(10,
+                Long.getLong("auction.closeAfterMillis", 30000),
+                Long.getLong("auction.softCloseMillis", 30000),
+                Long.getLong("auction.unsoldMillis", 120000),
+                (house, item) -> house.bids().timeUp(item));
+    }
+
+    /**
+     * Starts the accept loop, the scheduler, the bank link and the metrics
+     * endpoint. The auction runs without metrics if their port can not be
+     * opened.
+     */
+    public void start() {
+        Threads.start(this);
+        Threads.start(scheduler);
+        Threads.start(bankLink);
+
+        try {
+            metrics.start();
+        } catch (IOException exc) {
+            System.err.println("Unable to open the metrics port " +
+                    exc.getMessage());
+        }
+    }
+
+    /**
+     * Registers a house's listening channel with the accept loop
+     * @param house The house
+     */
+    protected void listen(AuctionHouse house) {
+        houses.add(house);
+        pending.add(house);
+        selector.wakeup();
+    }
+
+    /**
+     * Forgets a house that has closed
+     * @param house The house
+     */
+    protected void remove(AuctionHouse house) {
+        houses.remove(house);
+        bankLink.remove(house.bank());
+        selector.wakeup();
+    }
+
+    /**
+     * @return The houses currently running on the engine
+     */
+    public List<AuctionHouse> getHouses() {
+        return houses;
+    }
+
+    /**
+     * @return Scheduler closing the lots of every house
+     */
+    protected LotScheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return Connection to the bank shared by every house
+     */
+    protected BankLink bankLink() {
+        return bankLink;
+    }
+
+    /**
+     * @return Metrics endpoint of the engine
+     */
+    protected MetricsEndpoint metrics() {
+        return metrics;
+    }
+
+    /**
+     * Accept loop. Waits on the ports of every house at once and gives
+     * each new agent connection to its house.
+     */
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+            } catch (IOException exc) {
+                System.err.println("Accept loop failed " + exc.getMessage());
+                return;
+            }
+
+            AuctionHouse house;
+            while ((house = pending.poll()) != null) {
+                try {
+                    house.server().channel().register(selector,
+                            SelectionKey.OP_ACCEPT, house);
+                } catch (IOException exc) {
+                    house.fail(exc);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                accept(key);
+            }
+        }
+    }
+
+    /**
+     * Accepts one agent on a house's port
+     * @param key Key of the house's listening channel
+     */
+    private void accept(SelectionKey key) {
+        AuctionHouse house = (AuctionHouse) key.attachment();
+
+        try {
+            if (!key.isValid() || house.isClosed()) {
+                key.cancel();
+                return;
+            }
+
+            SocketChannel channel =
+                    ((ServerSocketChannel) key.channel()).accept();
+            if (channel == null) return;
+
+            // agent connections use plain blocking streams
+            channel.configureBlocking(true);
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            house.server().accept(socket);
+        } catch (IOException exc) {
+            System.err.println(house + ": accept failed " + exc.getMessage());
+        } catch (RuntimeException exc) {
+            house.fail(exc);
+        }
+    }
+
+    /**
+     * Opens a listening channel for a house
+     * @param port Port to listen on
+     * @return The channel, ready for the accept loop
+     * @throws IOException If the port can not be opened
+     */
+    protected static ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    /**
+     * Closes every house and stops the engine
+     * @param clean True if the auctions are over, which removes their bid
+     *              logs
+     */
+    public void close(boolean clean) {
+        for (AuctionHouse house : houses) house.close(clean);
+        metrics.close();
+
+        try {
+            bankLink.close();
+            selector.close();
+        } catch (IOException exc) {
+            System.err.println("Error closing the engine " + exc.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package auction;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from a primitive int key to a value, used to
+ * look up items by ID without boxing the key. Removal shifts the following
+ * entries back so no tombstones build up as lots open and close. Not thread
+ * safe; callers synchronize. Integer.MIN_VALUE can not be used as a key.
+ * @param <V> Value type
+ */
+class IntMap<V> {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    /**
+     * Creates a new map sized for the given number of entries
+     * @param expected Number of entries expected
+     */
+    IntMap(int expected) {
+        int capacity = 8;
+        while (capacity * 3 < expected * 4) capacity *= 2;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @return Number of entries in the map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param key Key to look up
+     * @return Value stored under the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+
+        for (int i = mix(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) values[i];
+        }
+
+        return null;
+    }
+
+    /**
+     * @param key Key to store the value under
+     * @param value Value to store
+     * @return Value previously stored under the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (key == EMPTY)
+            throw new IllegalArgumentException("Invalid key " + key);
+
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        size++;
+
+        if (size * 4 > keys.length * 3) resize(keys.length * 2);
+
+        return null;
+    }
+
+    /**
+     * @param key Key to remove
+     * @return Value that was stored under the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) return null;
+            i = (i + 1) & mask;
+        }
+
+        V old = (V) values[i];
+        size--;
+
+        // move back later entries that would be cut off by the new gap
+        int gap = i;
+        i = (i + 1) & mask;
+
+        while (keys[i] != EMPTY) {
+            int home = mix(keys[i]) & mask;
+
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        keys[gap] = EMPTY;
+        values[gap] = null;
+
+        return old;
+    }
+
+    /**
+     * Grows the map ahead of a bulk insert, so it is not resized along the
+     * way
+     * @param expected Number of entries expected
+     */
+    void reserve(int expected) {
+        int capacity = keys.length;
+        while (capacity * 3 < expected * 4) capacity *= 2;
+        if (capacity > keys.length) resize(capacity);
+    }
+
+    /**
+     * Removes every entry, keeping the current capacity
+     */
+    void clear() {
+        if (size == 0) return;
+
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], (V) oldValues[i]);
+        }
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
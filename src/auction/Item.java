@@ -0,0 +1,149 @@
+package auction;
+
+/**
+ * An item (lot) sold by the auction house. Holds the item's ID, name and
+ * starting price, plus the bidding state of the lot: current highest bid,
+ * highest bidder, closing deadline and the winner once the lot has closed.
+ *
+ * The highest bid and bidder are kept together in one immutable Bid that
+ * is replaced as a whole, so any thread can read the price and leader
+ * without locking and always sees a matching pair. Only the bid worker
+ * that owns the lot writes it.
+ */
+public class Item {
+    protected static final int NO_BIDDER = -1;
+
+    private final int id;
+    private final String name;
+    private final double initPrice;
+    private volatile Bid leading;
+    private volatile long closeAt = 0;
+    private volatile int winner = NO_BIDDER;
+    private volatile boolean closed = false;
+
+    /**
+     * Highest bid on a lot and who placed it
+     * @param bidderID ID of the bidder, or NO_BIDDER for the starting price
+     * @param amount Bid amount
+     */
+    protected record Bid(int bidderID, double amount) {}
+
+    /**
+     * Creates a new item with the given parameters
+     * @param id ID number of the item, unique within the auction house
+     * @param name Name of the item (no spaces)
+     * @param initPrice Starting bid price
+     */
+    public Item(int id, String name, double initPrice) {
+        this.id = id;
+        this.name = name;
+        this.initPrice = initPrice;
+        this.leading = new Bid(NO_BIDDER, initPrice);
+    }
+
+    /**
+     * @return ID number of the item
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return Name of the item
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Starting bid price of the item
+     */
+    public double getInitPrice() {
+        return initPrice;
+    }
+
+    /**
+     * @return Current price of the item: the highest bid if there is one,
+     * otherwise the starting price
+     */
+    public double getCurrentPrice() {
+        return leading.amount();
+    }
+
+    /**
+     * @return True if someone has bid on the item
+     */
+    public boolean hasBids() {
+        return leading.bidderID() != NO_BIDDER;
+    }
+
+    /**
+     * @return ID of the current highest bidder, or NO_BIDDER
+     */
+    public int getHighestBidder() {
+        return leading.bidderID();
+    }
+
+    /**
+     * @return Highest bid and bidder, read together
+     */
+    protected Bid getLeadingBid() {
+        return leading;
+    }
+
+    /**
+     * Records a new highest bid. The caller moves its catalog to a new
+     * version.
+     * @param bidderID ID of the bidder
+     * @param amount Bid amount
+     */
+    protected void setHighestBid(int bidderID, double amount) {
+        leading = new Bid(bidderID, amount);
+    }
+
+    /**
+     * @return Time in milliseconds at which the lot closes, or 0 if its
+     * clock has not started
+     */
+    public long getCloseAt() {
+        return closeAt;
+    }
+
+    /**
+     * @param closeAt Time in milliseconds at which the lot closes
+     */
+    protected void setCloseAt(long closeAt) {
+        this.closeAt = closeAt;
+    }
+
+    /**
+     * @return ID of the agent who won the item, or NO_BIDDER
+     */
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * @return True once the lot has closed, won or unsold
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the lot and marks the item as won by its current highest
+     * bidder, if it has one
+     */
+    protected void close() {
+        winner = leading.bidderID();
+        closed = true;
+    }
+
+    /**
+     * @return Item in the "name/id" form used by the auctionItems message
+     */
+    @Override
+    public String toString() {
+        return name + "/" + id;
+    }
+}
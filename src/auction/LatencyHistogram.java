@@ -0,0 +1,126 @@
+package auction;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, cheap enough to record on every
+ * bid. Values are counted in log-linear buckets the way HdrHistogram does
+ * it: every power of two is split into 16 equal buckets, so a percentile
+ * is never off by more than about 6%, and the whole range up to years
+ * fits in under a thousand counters. Recording is a few shifts and one
+ * atomic add; any thread may record while another reads.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency
+     * @param nanos Latency in nanoseconds, negative values count as 0
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Records the time since a start taken with System.nanoTime
+     * @param startNanos Start of the measured stage
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return Number of recorded latencies
+     */
+    long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return Mean latency in nanoseconds, 0 if nothing was recorded
+     */
+    long mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * @return Largest recorded latency in nanoseconds
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Latency in nanoseconds that the given share of the recorded
+     * latencies do not exceed, 0 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++) n += snapshot[i] = counts.get(i);
+        if (n == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestIn(i), max());
+        }
+
+        return max();
+    }
+
+    /**
+     * @param value Latency in nanoseconds, not negative
+     * @return Bucket the latency is counted in
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) - SUB_COUNT;
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @param index Bucket number
+     * @return Highest latency counted in the bucket
+     */
+    private static long highestIn(int index) {
+        if (index < SUB_COUNT) return index;
+
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @return "count n, mean, p50, p90, p99, max" in microseconds
+     */
+    @Override
+    public String toString() {
+        return "count " + count() + ", mean " + mean() / 1000 +
+                ", p50 " + percentile(50) / 1000 +
+                ", p90 " + percentile(90) / 1000 +
+                ", p99 " + percentile(99) / 1000 +
+                ", max " + max() / 1000 + " us";
+    }
+}
@@ -0,0 +1,204 @@
+package auction;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiPredicate;
+
+/**
+ * Closes lots when their deadline passes, using a hashed timing wheel.
+ * The wheel has WHEEL_SIZE buckets of tickMillis each; a lot sits in the
+ * bucket of its deadline and is only looked at when that bucket comes up,
+ * so an idle tick costs nothing no matter how many lots are open.
+ *
+ * The first bid on a lot starts its clock (closeAfterMillis). A later bid
+ * that lands less than softCloseMillis before the deadline pushes the
+ * deadline to softCloseMillis from now (anti-sniping). Moving a deadline
+ * only writes it to the item; when the old bucket comes up the item is
+ * put back in the bucket of its new deadline. With the default settings
+ * (both 30 s) every bid restarts the 30 s clock.
+ *
+ * A lot that nobody bids on is closed unsold unsoldMillis after it opened,
+ * so lots without bids do not hold their place in the sale window for
+ * ever. Until its first bid such a lot sits on the wheel by its opening
+ * time; the first bid puts it on its own clock and the unsold entry is
+ * dropped when it comes up.
+ *
+ * One scheduler serves every auction house of an Engine; each lot on the
+ * wheel remembers its house, and a house whose deadline handler throws
+ * loses that lot's timer, not the wheel.
+ */
+public class LotScheduler implements Runnable {
+    private static final int WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final long closeAfterMillis;
+    private final long softCloseMillis;
+    private final long unsoldMillis;
+    private final BiPredicate<AuctionHouse, Item> onDeadline;
+    private final ArrayList<ArrayList<Lot>> wheel = new ArrayList<>();
+    private final Queue<Lot> incoming = new ConcurrentLinkedQueue<>();
+    private long currentTick;
+
+    /**
+     * Creates a new lot scheduler with the given parameters
+     * @param tickMillis Resolution of the wheel in milliseconds
+     * @param closeAfterMillis Time from the first bid until the lot closes
+     * @param softCloseMillis A bid this close to the deadline extends the
+     *                        lot to this long from the bid
+     * @param unsoldMillis Time from opening until a lot without bids
+     *                     closes unsold, 0 to keep it open until bid on
+     * @param onDeadline Called with the house and the lot when the lot's
+     *                   deadline has passed, or when it is to close
+     *                   unsold. Returns
+     *                   false if the lot should not close yet, in which
+     *                   case it is scheduled again for its deadline.
+     */
+    public LotScheduler(long tickMillis, long closeAfterMillis,
+                        long softCloseMillis, long unsoldMillis,
+                        BiPredicate<AuctionHouse, Item> onDeadline) {
+        this.tickMillis = tickMillis;
+        this.closeAfterMillis = closeAfterMillis;
+        this.softCloseMillis = softCloseMillis;
+        this.unsoldMillis = unsoldMillis;
+        this.onDeadline = onDeadline;
+
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel.add(new ArrayList<>());
+
+        currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * A lot on the wheel and the house it belongs to
+     * @param unsoldAt Time the lot closes unsold if it has no bids by then,
+     *                 or 0 for a lot on its bid clock
+     */
+    private record Lot(AuctionHouse house, Item item, long unsoldAt) {
+
+        /**
+         * @return Time the lot is due
+         */
+        long deadline() {
+            return unsoldAt > 0 ? unsoldAt : item.getCloseAt();
+        }
+    }
+
+    /**
+     * Call when a lot has opened (or was recovered open without bids).
+     * Starts the time it has to get a first bid.
+     * @param house House of the lot
+     * @param item The lot
+     */
+    protected void opened(AuctionHouse house, Item item) {
+        if (unsoldMillis <= 0) return;
+
+        incoming.add(new Lot(house, item,
+                System.currentTimeMillis() + unsoldMillis));
+    }
+
+    /**
+     * Call when a bid has been accepted on a lot. Starts the lot's clock
+     * on its first bid, and applies the soft close extension after that.
+     * @param house House of the lot
+     * @param item The lot that was bid on
+     */
+    protected void onBid(AuctionHouse house, Item item) {
+        long now = System.currentTimeMillis();
+        long closeAt = item.getCloseAt();
+
+        if (closeAt == 0) {
+            item.setCloseAt(now + closeAfterMillis);
+            incoming.add(new Lot(house, item, 0));
+        } else if (closeAt - now < softCloseMillis) {
+            item.setCloseAt(now + softCloseMillis);
+        }
+    }
+
+    /**
+     * Puts a lot recovered from the bid log back on the clock. The lot
+     * gets at least softCloseMillis from now, so its bidders have time to
+     * come back after the restart.
+     * @param house House of the lot
+     * @param item Lot that already has a bid
+     */
+    protected void restore(AuctionHouse house, Item item) {
+        long now = System.currentTimeMillis();
+
+        item.setCloseAt(Math.max(item.getCloseAt(), now + softCloseMillis));
+        incoming.add(new Lot(house, item, 0));
+    }
+
+    /**
+     * Wheel loop. Wakes once per tick and handles the bucket(s) that are
+     * due, catching up if it woke late.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long nowTick = now / tickMillis;
+
+            if (nowTick <= currentTick) {
+                try {
+                    Thread.sleep((currentTick + 1) * tickMillis - now);
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+
+            Lot lot;
+            while ((lot = incoming.poll()) != null) insert(lot);
+
+            while (currentTick < nowTick) {
+                currentTick++;
+                expire(currentTick, now);
+            }
+        }
+    }
+
+    /**
+     * Handles every lot in the bucket of the given tick
+     * @param tick Tick that has come up
+     * @param now Current time in milliseconds
+     */
+    private void expire(long tick, long now) {
+        ArrayList<Lot> bucket = wheel.get((int) (tick & (WHEEL_SIZE - 1)));
+
+        if (bucket.isEmpty()) return;
+
+        ArrayList<Lot> due = new ArrayList<>(bucket);
+        bucket.clear();
+
+        for (Lot lot : due) {
+            if (lot.house().isClosed()) continue;
+
+            // bid on since it opened, its own clock closes it
+            if (lot.unsoldAt() > 0 && lot.item().getCloseAt() != 0) continue;
+
+            if (lot.deadline() > now) {
+                insert(lot);
+                continue;
+            }
+
+            try {
+                if (!onDeadline.test(lot.house(), lot.item())) insert(lot);
+            } catch (RuntimeException exc) {
+                lot.house().fail(exc);
+            }
+        }
+    }
+
+    /**
+     * Puts a lot in the bucket of its deadline, or the next bucket if the
+     * deadline has already passed. Deadlines more than one turn of the
+     * wheel away are looked at once per turn until they are due.
+     * @param lot Lot to insert
+     */
+    private void insert(Lot lot) {
+        long tick = Math.max(lot.deadline() / tickMillis,
+                currentTick + 1);
+        wheel.get((int) (tick & (WHEEL_SIZE - 1))).add(lot);
+    }
+}
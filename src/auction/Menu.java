@@ -1,9 +1,6 @@
 package auction;
 
-import java.io.IOException;
 import java.util.Scanner;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -15,15 +12,16 @@ import java.util.concurrent.TimeUnit;
 public class Menu implements Runnable {
     private boolean run = true;
     private final Scanner scanner;
-    private static final BlockingQueue<Double> inbox =
-            new ArrayBlockingQueue<>(10);
+    private final AuctionHouse house;
 
     /**
      * Creates a new menu object with the given parameters
      * @param userIn Scanner object used to fetch input form the user
+     * @param house The auction house the menu controls
      */
-    public Menu(Scanner userIn) {
+    public Menu(Scanner userIn, AuctionHouse house) {
         scanner = userIn;
+        this.house = house;
     }
 
     /**
@@ -35,7 +33,7 @@ public class Menu implements Runnable {
 
         while (run) {
             System.out.println("Auction House Menu");
-            if (BankConnection.isRegistered())
+            if (house.bank().isRegistered())
                 System.out.println("[B] Check Balance");
             else System.out.println("[L] Login to Bank");
             System.out.println("[S] Check Status");
@@ -45,27 +43,20 @@ public class Menu implements Runnable {
 
             switch (input.toLowerCase()) {
                 case "b" -> {
-                    if (BankConnection.isRegistered()) {
-                        BankConnection.sendMessage("CheckBalance");
+                    if (house.bank().isRegistered()) {
+                        house.bank().sendMessage("CheckBalance");
+                        Double balance = null;
 
-                        int incr = 0, bool = 0;
-                        while (bool == 0 && incr < 30) {
-                            if (!inbox.isEmpty()) {
-                                System.out.println("Current Balance: $" +
-                                        inbox.poll());
-                                bool = 1;
-                            } else {
-                                try {
-                                    Thread.sleep(100);
-                                } catch (InterruptedException exc) {
-                                    Thread.currentThread().interrupt();
-                                }
-
-                                incr++;
-                            }
+                        try {
+                            balance = house.bank().awaitBalance(3000);
+                        } catch (InterruptedException exc) {
+                            Thread.currentThread().interrupt();
                         }
 
-                        if (incr >= 30) {
+                        if (balance != null) {
+                            System.out.println("Current Balance: $" +
+                                    balance);
+                        } else {
                             System.err.println("Unable to fetch balance: " +
                                     "request timed out");
                         }
@@ -73,18 +64,18 @@ public class Menu implements Runnable {
                         System.err.println(input +
                                 " is not a valid option");
                 } case "l" -> {
-                    if (!BankConnection.isRegistered()) {
+                    if (!house.bank().isRegistered()) {
                         System.out.println("Please select a login option:");
                         System.out.println("[N] New User");
                         System.out.println("[R] Returning User");
 
                         String userSelect = scanner.nextLine();
                         String toBank = processLogin(userSelect);
-                        BankConnection.sendMessage(toBank);
+                        house.bank().login(toBank);
 
                         int incr = 0, bool = 0;
                         while (bool == 0 && incr < 30) {
-                            if (BankConnection.isRegistered()) {
+                            if (house.bank().isRegistered()) {
                                 System.out.println("Login successful");
                                 bool = 1;
                             } else {
@@ -107,30 +98,39 @@ public class Menu implements Runnable {
                                 " is not a valid option");
                 }
                 case "s" -> {
-                    String reg = BankConnection.isRegistered() ? "Y" : "N";
+                    String reg = house.bank().isRegistered() ? "Y" : "N";
                     System.out.println("Registered w/ bank: " + reg);
-                    int sz = Auction.getItems().size();
+                    int sz = house.catalog().size();
                     System.out.println("Items Remaining: " + sz);
-                    int max4Sale = Auction.getMaxConcurrentSales();
-                    int curr4Sale = Math.min(max4Sale, sz);
+                    int max4Sale = house.bids().getMaxConcurrentSales();
+                    String limit = max4Sale > 0 ?
+                            String.valueOf(max4Sale) : "none";
                     System.out.println("Current Items for Sale: " +
-                            curr4Sale);
-                    String bidding = BidManager.hasUnresolvedBids() ?
+                            house.catalog().openCount() + " (limit " + limit +
+                            ", " + house.catalog().queuedCount() + " queued)");
+                    String bidding = house.bids().hasUnresolvedBids() ?
                             "Y" : "N";
                     System.out.println("Bidding in Progress: " + bidding);
+                    System.out.println("Connected Clients: " +
+                            house.server().getClientCount());
+                    System.out.println("Queued Messages: " +
+                            Outbox.getTotalDepth() + " (deepest client " +
+                            Outbox.getMaxDepth() + ")");
+                    System.out.println("Updates Coalesced: " +
+                            Outbox.getCoalesced());
+                    System.out.println("Slow Clients Dropped: " +
+                            Outbox.getDropped());
+                    System.out.println("Bids Coalesced: " +
+                            house.bids().getCoalesceStats());
+                    if (house.bids().isCallMode()) {
+                        System.out.println("Call Auctions: " +
+                                house.bids().getCallStats());
+                    }
                 }
                 case "q" -> {
-                    if (!BidManager.hasUnresolvedBids()) {
+                    if (!house.bids().hasUnresolvedBids()) {
                         run = false;
-
-                        try {
-                            Server.close();
-                            BankConnection.close();
-                        } catch (IOException exc) {
-                            System.err.println("An error occurred while" +
-                                    " closing: ");
-                            System.err.print(exc.getMessage());
-                        }
+                        house.engine().close(true);
 
                         System.out.println("Closing auction house...");
                         System.exit(0);
@@ -150,15 +150,6 @@ public class Menu implements Runnable {
         }
     }
 
-    /**
-     * Use this to send the auction house account's current balance after
-     * a check balance request by the user
-     * @param balance Current balance of auctions house bank account
-     */
-    protected static void sendBalance(double balance) {
-        inbox.add(balance);
-    }
-
     /**
      * Helper method to process bank account login request from the user
      * @param option Login option selected by the user ("n" for new user,
@@ -172,7 +163,7 @@ public class Menu implements Runnable {
             case "n" -> {
                 // this need to be changes to auction_name auction_ID which would be preferably not hardcoded
                 //port is sent later in "open"
-                out += "registerAuction " + Auction.getName();
+                out += "registerAuction " + house.getName();
 
                 System.out.println("Provide a 4-digit PIN: " +
                         "(write it down for future logins)");
@@ -181,7 +172,7 @@ public class Menu implements Runnable {
                 System.out.println("Attempting login as new user...");
             }
             case "r" -> {
-                out += "ReturningUser " + Auction.getName();
+                out += "ReturningUser " + house.getName();
 
                 System.out.println("Please enter your PIN below:");
                 out += " " + askPIN();
@@ -0,0 +1,244 @@
+package auction;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time of a bid goes in one auction house. Four stages of the
+ * bid path are kept in LatencyHistograms:
+ *
+ * receiveToValidate: from reading a bid off the agent's socket until it
+ * is checked and queued for its bid worker.
+ * holdRoundTrip: from sending a reqHold until the bank's answer, retries
+ * included.
+ * acceptToBroadcast: from a bid becoming the leader until the new price is
+ * logged and queued for every agent.
+ * closeToSettlement: from a lot closing until the bank reports the funds
+ * transferred.
+ *
+ * Next to them it counts bids per lot, and reads inbox depths, pending
+ * holds and connections when asked. The house registers it over JMX;
+ * the engine's MetricsEndpoint serves it over HTTP and dumps it to the log.
+ */
+public class Metrics implements MetricsMXBean {
+    private final AuctionHouse house;
+    private final LatencyHistogram receiveToValidate = new LatencyHistogram();
+    private final LatencyHistogram holdRoundTrip = new LatencyHistogram();
+    private final LatencyHistogram acceptToBroadcast = new LatencyHistogram();
+    private final LatencyHistogram closeToSettlement = new LatencyHistogram();
+    private final Map<Integer, LotRate> lots = new ConcurrentHashMap<>();
+    private final LongAdder bids = new LongAdder();
+    private ObjectName name;
+
+    /**
+     * Bids on one open lot since its first bid
+     */
+    private static class LotRate {
+        private final long since = System.nanoTime();
+        private final LongAdder bids = new LongAdder();
+    }
+
+    /**
+     * Creates the metrics of a house
+     * @param house The house
+     */
+    Metrics(AuctionHouse house) {
+        this.house = house;
+    }
+
+    /**
+     * @return Latencies from reading a bid to queuing it for its worker
+     */
+    LatencyHistogram receiveToValidate() {
+        return receiveToValidate;
+    }
+
+    /**
+     * @return Latencies of hold requests to the bank
+     */
+    LatencyHistogram holdRoundTrip() {
+        return holdRoundTrip;
+    }
+
+    /**
+     * @return Latencies from a new leader to its price being sent out
+     */
+    LatencyHistogram acceptToBroadcast() {
+        return acceptToBroadcast;
+    }
+
+    /**
+     * @return Latencies from a lot closing to its settlement
+     */
+    LatencyHistogram closeToSettlement() {
+        return closeToSettlement;
+    }
+
+    /**
+     * Counts a bid that reached its lot's worker
+     * @param itemID ID of the lot
+     */
+    void bidReceived(int itemID) {
+        bids.increment();
+        lots.computeIfAbsent(itemID, id -> new LotRate()).bids.increment();
+    }
+
+    /**
+     * Stops counting bids for a lot that has closed
+     * @param itemID ID of the lot
+     */
+    void lotClosed(int itemID) {
+        lots.remove(itemID);
+    }
+
+    /**
+     * Publishes the metrics over JMX. The port is part of the bean's name,
+     * so houses of the same name on one engine each get their own. A
+     * failure is reported and otherwise ignored, the house runs the same
+     * without it.
+     */
+    void register() {
+        if (name != null) return;
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName unique = new ObjectName("auction:type=House,name=" +
+                    ObjectName.quote(house.getName()) + ",port=" +
+                    house.getPort());
+            server.registerMBean(this, unique);
+            name = unique;
+        } catch (JMException exc) {
+            System.err.println(house + ": unable to register metrics " +
+                    exc.getMessage());
+        }
+    }
+
+    /**
+     * Takes the metrics off JMX
+     */
+    void unregister() {
+        if (name == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException exc) {
+            System.err.println(house + ": unable to unregister metrics " +
+                    exc.getMessage());
+        }
+        name = null;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return house.server().getClientCount();
+    }
+
+    @Override
+    public int getInboxDepth() {
+        return house.bids() == null ? 0 : house.bids().getInboxDepth();
+    }
+
+    @Override
+    public int getPendingHolds() {
+        return house.bank().getPendingHolds();
+    }
+
+    @Override
+    public long getBidsReceived() {
+        return bids.sum();
+    }
+
+    @Override
+    public long getBidsCoalesced() {
+        return house.bids() == null ? 0 : house.bids().getBidsCoalesced();
+    }
+
+    @Override
+    public long getHoldsSaved() {
+        return house.bids() == null ? 0 : house.bids().getHoldsSaved();
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMicros() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+
+        for (Map.Entry<String, LatencyHistogram> stage : stages().entrySet()) {
+            LatencyHistogram h = stage.getValue();
+            String key = stage.getKey() + ".";
+
+            latencies.put(key + "count", h.count());
+            latencies.put(key + "mean", h.mean() / 1000);
+            latencies.put(key + "p50", h.percentile(50) / 1000);
+            latencies.put(key + "p90", h.percentile(90) / 1000);
+            latencies.put(key + "p99", h.percentile(99) / 1000);
+            latencies.put(key + "max", h.max() / 1000);
+        }
+
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Double> getLotBidRates() {
+        Map<String, Double> rates = new TreeMap<>();
+        long now = System.nanoTime();
+
+        for (Map.Entry<Integer, LotRate> lot : lots.entrySet()) {
+            double seconds = Math.max(1e-3,
+                    (now - lot.getValue().since) / 1e9);
+            rates.put(String.valueOf(lot.getKey()),
+                    Math.round(lot.getValue().bids.sum() / seconds * 10) / 10.0);
+        }
+
+        return rates;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        report.append("house ").append(house.getName())
+                .append(" port ").append(house.getPort()).append('\n')
+                .append("  clients ").append(getConnectedClients())
+                .append(", inboxes ").append(house.bids() == null ? "-" :
+                        house.bids().getInboxDepths())
+                .append(", pending holds ").append(getPendingHolds())
+                .append(", bids ").append(getBidsReceived()).append('\n')
+                .append("  coalesced ").append(getBidsCoalesced())
+                .append(" bids, ").append(getHoldsSaved())
+                .append(" holds saved\n");
+
+        for (Map.Entry<String, LatencyHistogram> stage : stages().entrySet()) {
+            report.append("  ").append(stage.getKey()).append(": ")
+                    .append(stage.getValue()).append('\n');
+        }
+
+        Map<String, Double> rates = getLotBidRates();
+        if (!rates.isEmpty()) {
+            report.append("  bids/s by lot:");
+            rates.forEach((id, rate) ->
+                    report.append(' ').append(id).append('=').append(rate));
+            report.append('\n');
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * @return Histogram of every stage by name, in bid path order
+     */
+    private Map<String, LatencyHistogram> stages() {
+        Map<String, LatencyHistogram> stages = new LinkedHashMap<>();
+        stages.put("receiveToValidate", receiveToValidate);
+        stages.put("holdRoundTrip", holdRoundTrip);
+        stages.put("acceptToBroadcast", acceptToBroadcast);
+        stages.put("closeToSettlement", closeToSettlement);
+        return stages;
+    }
+}
@@ -0,0 +1,108 @@
+package auction;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the Metrics of every house on an engine. With
+ * -Dauction.metricsPort set, GET http://localhost:port/metrics returns the
+ * report of every house as plain text; the port only listens on the
+ * loopback address. With -Dauction.metricsLogMillis set, the same report
+ * is printed to the log that often. Both are off by default; the JMX beans
+ * of the houses are always there.
+ */
+public class MetricsEndpoint implements Runnable {
+    private final Engine engine;
+    private final long logMillis =
+            Long.getLong("auction.metricsLogMillis", 0);
+    private HttpServer http;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the endpoint of an engine. Nothing is served until start.
+     * @param engine The engine
+     */
+    public MetricsEndpoint(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Opens the HTTP port and starts the log dump, if they are configured
+     * @throws IOException If the HTTP port can not be opened
+     */
+    protected void start() throws IOException {
+        int port = Integer.getInteger("auction.metricsPort", 0);
+
+        if (port > 0) {
+            http = HttpServer.create(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", this::serve);
+            http.start();
+            System.out.println("Metrics on http://localhost:" + port +
+                    "/metrics");
+        }
+
+        if (logMillis > 0) Threads.start(this);
+    }
+
+    /**
+     * @return Report of every house on the engine
+     */
+    protected String report() {
+        StringBuilder report = new StringBuilder();
+
+        for (AuctionHouse house : engine.getHouses())
+            report.append(house.metrics().getReport());
+
+        return report.append("outboxes ").append(Outbox.getTotalDepth())
+                .append(" queued (deepest ").append(Outbox.getMaxDepth())
+                .append("), ").append(Outbox.getDropped())
+                .append(" slow clients dropped\n").toString();
+    }
+
+    /**
+     * Answers one HTTP request with the report
+     * @param exchange The request
+     * @throws IOException If the answer can not be sent
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] body = report().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Log loop prints the report every metricsLogMillis
+     */
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(logMillis);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (!closed) System.out.print("Metrics\n" + report());
+        }
+    }
+
+    /**
+     * Closes the HTTP port and stops the log dump
+     */
+    protected void close() {
+        closed = true;
+        if (http != null) http.stop(0);
+    }
+}
@@ -0,0 +1,58 @@
+package auction;
+
+import java.util.Map;
+
+/**
+ * What an auction house publishes over JMX, under
+ * auction:type=House,name="houseName",port=port. Latencies are in
+ * microseconds.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return Number of agents connected to the house
+     */
+    int getConnectedClients();
+
+    /**
+     * @return Messages waiting in the inboxes of the house's bid workers
+     */
+    int getInboxDepth();
+
+    /**
+     * @return Hold requests waiting for the bank
+     */
+    int getPendingHolds();
+
+    /**
+     * @return Bids received by the bid workers
+     */
+    long getBidsReceived();
+
+    /**
+     * @return Bids that waited on a hold of the same agent on the same lot
+     * instead of asking the bank for their own
+     */
+    long getBidsCoalesced();
+
+    /**
+     * @return Hold requests coalescing saved the bank
+     */
+    long getHoldsSaved();
+
+    /**
+     * @return "stage.statistic" to latency in microseconds for every
+     * stage of the bid path, e.g. "holdRoundTrip.p99"
+     */
+    Map<String, Long> getLatencyMicros();
+
+    /**
+     * @return Bids per second on every lot that has bids, by item ID
+     */
+    Map<String, Double> getLotBidRates();
+
+    /**
+     * @return Everything above as text, as served over HTTP
+     */
+    String getReport();
+}
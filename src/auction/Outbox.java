@@ -0,0 +1,221 @@
+package auction;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded queue of messages waiting to go out to one agent, drained by the
+ * connection's own writer thread so a slow or stalled agent never blocks
+ * the thread that queued the message.
+ *
+ * Item updates are coalesced. When an itemDelta arrives while an older
+ * delta for the same item is still queued, or while the queue is more than
+ * half full, all queued item updates are replaced by a single snapshot
+ * slot. The writer fills that slot with the auctionItems line current at
+ * the time it is written, so the agent gets the latest prices in one
+ * message instead of every step in between. An agent that falls behind by
+ * the full limit anyway is disconnected. lotOpened and lotClosed messages
+ * are item updates too: a snapshot absorbs them, but they never replace
+ * each other. The counters are kept across every house of the JVM.
+ */
+class Outbox implements Runnable {
+    private static final int LIMIT =
+            Integer.getInteger("auction.outboxLimit", 1024);
+    private static final String DELTA = "itemDelta ";
+    private static final String OPENED = "lotOpened ";
+    private static final String CLOSED = "lotClosed ";
+
+    private static final AtomicInteger totalDepth = new AtomicInteger();
+    private static final AtomicInteger maxDepth = new AtomicInteger();
+    private static final AtomicLong coalesced = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    /** Queued message. Text null marks the snapshot slot. */
+    private record Message(String text, int itemID) {}
+
+    private static final Message SNAPSHOT = new Message(null, -1);
+
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private final IntMap<Message> pendingDeltas = new IntMap<>(16);
+    private final PrintWriter out;
+    private final Supplier<String> snapshot;
+    private final Runnable onOverflow;
+    private boolean snapshotQueued = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a new outbox writing to the given writer
+     * @param out Writer for the agent's socket
+     * @param snapshot Builds the current auctionItems line of the house
+     * @param onOverflow Called once, off the writer thread's lock, when the
+     *                   agent has fallen too far behind
+     */
+    Outbox(PrintWriter out, Supplier<String> snapshot, Runnable onOverflow) {
+        this.out = out;
+        this.snapshot = snapshot;
+        this.onOverflow = onOverflow;
+    }
+
+    /**
+     * Queues a message for the agent. Never blocks on the socket.
+     * @param msg Message to the agent
+     */
+    void offer(String msg) {
+        boolean overflow = false;
+
+        synchronized (this) {
+            if (closed) return;
+
+            if (msg.startsWith("auctionItems")) {
+                queueSnapshot();
+            } else if (msg.startsWith(DELTA)) {
+                int itemID = itemOf(msg);
+
+                if (snapshotQueued) {
+                    coalesced.incrementAndGet();
+                } else if (pendingDeltas.get(itemID) != null ||
+                        queue.size() >= LIMIT / 2) {
+                    queueSnapshot();
+                    coalesced.incrementAndGet();
+                } else {
+                    Message delta = new Message(msg, itemID);
+                    pendingDeltas.put(itemID, delta);
+                    add(delta);
+                }
+            } else if (msg.startsWith(OPENED) || msg.startsWith(CLOSED)) {
+                if (snapshotQueued) {
+                    coalesced.incrementAndGet();
+                } else if (queue.size() >= LIMIT / 2) {
+                    queueSnapshot();
+                    coalesced.incrementAndGet();
+                } else add(new Message(msg, itemOf(msg)));
+            } else if (queue.size() >= LIMIT) {
+                closed = true;
+                overflow = true;
+            } else add(new Message(msg, -1));
+
+            notifyAll();
+        }
+
+        if (overflow) {
+            dropped.incrementAndGet();
+            onOverflow.run();
+        }
+    }
+
+    /**
+     * Writer loop. Writes queued messages in order and flushes once the
+     * queue is empty, so a burst goes out in as few packets as possible.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Message next;
+
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+                if (queue.isEmpty()) return;
+
+                next = queue.poll();
+                totalDepth.decrementAndGet();
+
+                if (next == SNAPSHOT) snapshotQueued = false;
+                else if (next.itemID() >= 0 &&
+                        pendingDeltas.get(next.itemID()) == next)
+                    pendingDeltas.remove(next.itemID());
+            }
+
+            // rendered after leaving the queue, so every update absorbed by
+            // the slot is already in the line
+            out.println(next == SNAPSHOT ? snapshot.get() : next.text());
+
+            boolean idle;
+            synchronized (this) {
+                idle = queue.isEmpty();
+            }
+            if (idle) out.flush();
+        }
+    }
+
+    /**
+     * Stops the writer once the queue is empty. Later messages are dropped.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return Number of messages waiting for this agent
+     */
+    synchronized int depth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Number of messages waiting across all agents
+     */
+    protected static int getTotalDepth() {
+        return totalDepth.get();
+    }
+
+    /**
+     * @return Most messages ever waiting for a single agent
+     */
+    protected static int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return Number of item updates folded into a snapshot
+     */
+    protected static long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return Number of agents disconnected for falling behind
+     */
+    protected static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Replaces every queued item update with one snapshot slot at the back
+     * of the queue
+     */
+    private void queueSnapshot() {
+        if (snapshotQueued) return;
+
+        int before = queue.size();
+        queue.removeIf(m -> m.itemID() >= 0);
+        totalDepth.addAndGet(queue.size() - before);
+        pendingDeltas.clear();
+
+        snapshotQueued = true;
+        add(SNAPSHOT);
+    }
+
+    private void add(Message msg) {
+        queue.add(msg);
+        totalDepth.incrementAndGet();
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    private static int itemOf(String update) {
+        int start = update.indexOf(' ') + 1;
+        int end = update.indexOf(' ', start);
+        return Integer.parseInt(update.substring(start, end));
+    }
+}
@@ -0,0 +1,86 @@
+package auction;
+
+/**
+ * Decides when queued items open for bidding. At most maxOpen lots
+ * (-Dauction.maxConcurrentSales, default 3, 0 for no limit) are open at
+ * once. By default the window rolls: as soon as a lot closes, the next
+ * queued item takes its place. With -Dauction.slotMillis set, items only
+ * open at the start of each time slot, at most lotsPerSlot
+ * (-Dauction.lotsPerSlot, default maxConcurrentSales) per slot, so sales
+ * start in waves instead of one by one. Lots nobody bids on close unsold
+ * after a while (see LotScheduler), so they do not keep the window full.
+ */
+public class SaleWindow implements Runnable {
+    private final AuctionHouse house;
+    private final int maxOpen;
+    private final long slotMillis;
+    private final int lotsPerSlot;
+
+    /**
+     * Creates a new sale window with the given parameters
+     * @param house House whose items the window opens
+     * @param maxOpen Most lots open at once, 0 for no limit
+     * @param slotMillis Length of a time slot in milliseconds, 0 to open
+     *                   lots as soon as there is room
+     * @param lotsPerSlot Most lots opened at the start of one slot
+     */
+    public SaleWindow(AuctionHouse house, int maxOpen, long slotMillis,
+                      int lotsPerSlot) {
+        this.house = house;
+        this.maxOpen = maxOpen;
+        this.slotMillis = slotMillis;
+        this.lotsPerSlot = lotsPerSlot;
+    }
+
+    /**
+     * @return True if lots open in time slots rather than when others close
+     */
+    protected boolean isSlotted() {
+        return slotMillis > 0;
+    }
+
+    /**
+     * @return Most lots open at once, 0 for no limit
+     */
+    protected int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /**
+     * Opens queued items until the window is full
+     * @param limit Most items to open
+     */
+    protected synchronized void fill(int limit) {
+        for (int opened = 0; opened < limit; opened++) {
+            if (maxOpen > 0 && house.catalog().openCount() >= maxOpen)
+                return;
+            if (!house.bids().openNext()) return;
+        }
+    }
+
+    /**
+     * Call when a lot has closed. A rolling window opens the next item
+     * right away; a slotted one waits for the next slot.
+     */
+    protected void onClose() {
+        if (!isSlotted()) fill(1);
+    }
+
+    /**
+     * Slot loop. Opens the next wave of items at the start of every slot
+     * until nothing is left to open.
+     */
+    @Override
+    public void run() {
+        while (house.catalog().queuedCount() > 0 && !house.isClosed()) {
+            fill(lotsPerSlot);
+
+            try {
+                Thread.sleep(slotMillis);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
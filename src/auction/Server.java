@@ -1,50 +1,65 @@
 package auction;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Server for the auction house. Encapsulates server socket which agents
- * connect to in order to communicate with the auction house. Contains helper
- * functions to add, find and remove active agent connections.
+ * Server for an auction house. Owns the listening channel which agents
+ * connect to in order to communicate with the auction house; the engine's
+ * accept loop waits on it together with the channels of every other house.
+ * Contains helper functions to add, find and remove active agent
+ * connections.
  */
-public class Server implements Runnable {
-    private static ServerSocket serverSocket;
-    private static final Map<Integer,
-            ClientConnection> clients = new HashMap<>();
+public class Server {
+    private final AuctionHouse house;
+    private ServerSocketChannel channel;
+    private final Map<Integer,
+            ClientConnection> clients = new ConcurrentHashMap<>();
 
     /**
-     * Creates a new server with the given parameters
-     * @param port Port # that the server socket connection runs through
-     * @throws IOException If an error occurs starting the server socket
+     * Creates a new server for the given house. It takes no agents until
+     * listen is called.
+     * @param house The house
      */
-    public Server(int port) throws IOException {
-        serverSocket = new ServerSocket(port);
+    public Server(AuctionHouse house) {
+        this.house = house;
     }
 
     /**
-     * Server loop accepts incoming socket connections, encapsulates them
-     * in a client connection object, and starts them on their own thread
+     * Opens the house's port and hands it to the engine's accept loop
+     * @param port Port # that agents connect through
+     * @throws IOException If an error occurs opening the port
      */
-    @Override
-    public void run() {
-        while (!serverSocket.isClosed() && !Auction.getItems().isEmpty()) {
-            try {
-                Socket client = serverSocket.accept();
-                ClientConnection cc = new ClientConnection(client);
-                Thread t = new Thread(cc);
-                t.start();
-            } catch (IOException exc) {}
-
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    protected void listen(int port) throws IOException {
+        channel = Engine.bind(port);
+        house.engine().listen(house);
+    }
+
+    /**
+     * @return Listening channel of the house
+     */
+    protected ServerSocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Encapsulates a newly accepted socket in a client connection object,
+     * and starts it on its own thread (a virtual thread in virtual thread
+     * mode). Called by the accept loop.
+     * @param socket Socket connection activated by the agent
+     * @throws IOException If an error occurs setting up the connection
+     */
+    protected void accept(Socket socket) throws IOException {
+        if (house.catalog().isEmpty()) {
+            socket.close();
+            return;
         }
+
+        ClientConnection cc = new ClientConnection(house, socket);
+        Threads.start(cc);
     }
 
     /**
@@ -52,16 +67,27 @@ public class Server implements Runnable {
      * @param clientID ID value of the client used to identify their connection
      * @return Client connection object associated with the given ID
      */
-    protected static ClientConnection getClient(int clientID) {
+    protected ClientConnection getClient(int clientID) {
         return clients.get(clientID);
     }
 
+    /**
+     * Sends a message to a client if it is still connected
+     * @param clientID ID value of the client used to identify their connection
+     * @param msg Message to the client
+     */
+    protected void sendTo(int clientID, String msg) {
+        ClientConnection cc = clients.get(clientID);
+
+        if (cc != null) cc.sendMessage(msg);
+    }
+
     /**
      * Adds a connected client to the server's list of active connections
      * @param clientID ID value given by the client
      * @param cc Client connection object associated with the new connection
      */
-    protected static void addClient(int clientID, ClientConnection cc) {
+    protected void addClient(int clientID, ClientConnection cc) {
         clients.put(clientID, cc);
     }
 
@@ -69,25 +95,34 @@ public class Server implements Runnable {
      * Removes a connected client from the server's list of active connections
      * @param clientID ID value of the client used to identify their connection
      */
-    protected static void removeClient(int clientID) {
+    protected void removeClient(int clientID) {
         clients.remove(clientID);
     }
 
     /**
      * Sends updated list of items currently for sale at the auction house
-     * to all the clients connected to the auction house server
+     * to all the clients connected to the auction house server. Only queues
+     * the message on each connection, so a slow client does not hold up
+     * the caller.
      * @param items Updated list of items for sale
      */
-    protected static void sendItemsUpdate(String items) {
+    protected void sendItemsUpdate(String items) {
         for (ClientConnection cc : clients.values()) cc.sendMessage(items);
     }
 
+    /**
+     * @return Number of clients currently connected
+     */
+    protected int getClientCount() {
+        return clients.size();
+    }
+
     /**
      * Shuts down the server, and closes all active connections to it
      * @throws IOException If an error occurs closing any open sockets
      */
-    protected static void close() throws IOException {
-        serverSocket.close();
+    protected void close() throws IOException {
+        if (channel != null) channel.close();
 
         for (ClientConnection cc : clients.values()) {
             cc.close("noActivity");
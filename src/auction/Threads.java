@@ -0,0 +1,62 @@
+package auction;
+
+import java.lang.reflect.Method;
+
+/**
+ * Starts every thread of the auction house. By default these are platform
+ * threads. When the auction house is started with
+ * -Dauction.virtualThreads=true, connections, the bid manager and the bid
+ * timer run on virtual threads instead. Virtual threads need Java 21; on
+ * older runtimes a warning is printed and platform threads are used.
+ */
+public final class Threads {
+    private static Object virtualBuilder = null;
+    private static Method startVirtual = null;
+
+    private Threads() {}
+
+    /**
+     * Switches to virtual threads if the runtime supports them
+     * @return True if virtual threads will be used
+     */
+    protected static boolean useVirtualThreads() {
+        try {
+            virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+            startVirtual = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("start", Runnable.class);
+        } catch (ReflectiveOperationException exc) {
+            virtualBuilder = null;
+            startVirtual = null;
+            System.err.println("Virtual threads need Java 21 or newer, " +
+                    "using platform threads");
+        }
+
+        return isVirtual();
+    }
+
+    /**
+     * @return True if the auction house runs on virtual threads
+     */
+    protected static boolean isVirtual() {
+        return virtualBuilder != null;
+    }
+
+    /**
+     * Starts a task on a new thread of the current kind
+     * @param task Task to run
+     * @return The started thread
+     */
+    protected static Thread start(Runnable task) {
+        if (isVirtual()) {
+            try {
+                return (Thread) startVirtual.invoke(virtualBuilder, task);
+            } catch (ReflectiveOperationException exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+
+        Thread t = new Thread(task);
+        t.start();
+        return t;
+    }
+}
@@ -1,12 +1,11 @@
 package bank;
 
-import java.util.HashMap;
+import java.util.Map;
 
 /**
- * The Account is a record which can not be overwritten so account updates manually recreate the account wit the right
- * amount
+ * The Account is an immutable snapshot of an AccountLedger. Balance updates happen in place on the ledger, and an
+ * Account is only built when someone needs a consistent read of the whole account
  */
 
-public record Account(String User, double Account, int ID, int Type, HashMap<Integer, Double> Holds) {
+public record Account(String User, double Account, int ID, int Type, Map<Long, Double> Holds) {
 }
-
@@ -0,0 +1,216 @@
+package bank;
+
+/**
+ * The AccountLedger is the mutable cell behind a single bank account. Every balance and hold update for an account
+ * is done while holding that account's monitor, so two requests for the same ID can not overwrite each other and no
+ * new record has to be created per update. Use snapshot() to get an Account record for reading.
+ * Holds are kept in whole cents so the running held total never drifts.
+ */
+
+class AccountLedger {
+    private final String user;
+    private final int id;
+    private final int type;
+    private double balance;
+    private final HoldMap holds = new HoldMap();
+    private long heldTotal;
+    private int slot;
+    private boolean dirty;
+
+    AccountLedger(String user, int id, int type, double balance){
+        this(user, id, type, balance, -1);
+        dirty = true;
+    }
+
+    /**
+     * @param slot record number of this account in the AccountStore, -1 if it has never been stored
+     */
+
+    AccountLedger(String user, int id, int type, double balance, int slot){
+        this.user = user;
+        this.id = id;
+        this.type = type;
+        this.balance = balance;
+        this.slot = slot;
+    }
+
+    String user(){
+        return user;
+    }
+
+    int id(){
+        return id;
+    }
+
+    int type(){
+        return type;
+    }
+
+    synchronized double balance(){
+        return balance;
+    }
+
+    /**
+     * @return the sum of every open hold, kept up to date by hold, removeHold and pushTransfer
+     */
+
+    synchronized double heldTotal(){
+        return heldTotal / 100.0;
+    }
+
+    /**
+     * This function re-adds every hold and compares it with the running total. A mismatch is reported and the running
+     * total is reset to the real sum.
+     * @return true if the running total matched the holds
+     */
+
+    synchronized boolean checkHeldTotal(){
+        long[] sum = new long[1];
+        holds.forEach((key, cents) -> sum[0] += cents);
+        if (sum[0] != heldTotal){
+            System.out.println("Held total for " + id + " was " + heldTotal + " cents but holds add up to " + sum[0]);
+            heldTotal = sum[0];
+            return false;
+        }
+        return true;
+    }
+
+    synchronized int slot(){
+        return slot;
+    }
+
+    /**
+     * @return true if the balance changed since the account was last written to the AccountStore
+     */
+
+    synchronized boolean isDirty(){
+        return dirty;
+    }
+
+    synchronized void stored(int slot){
+        this.slot = slot;
+        dirty = false;
+    }
+
+    /**
+     * Takes amount out of the balance if there is more than amount in the account
+     * @param amount money to withdraw
+     * @return false if the balance was too low
+     */
+
+    synchronized boolean withdraw(double amount){
+        if (balance > amount){
+            balance -= amount;
+            dirty = true;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void deposit(double amount){
+        balance += amount;
+        dirty = true;
+    }
+
+    /**
+     * Places (or replaces) the hold under key. Negative amounts are money the account is bidding, positive amounts
+     * are money owed to the account.
+     * @param amount amount of the hold
+     * @param key hold key of the auction house and item the hold is for
+     * @return false if the balance can not cover the new hold on top of the other holds
+     */
+
+    synchronized boolean hold(double amount, long key){
+        long cents = toCents(amount);
+        long replaced = holds.get(key);
+        // the hold being replaced no longer counts against the balance
+        long total = heldTotal + cents - (replaced == HoldMap.ABSENT ? 0 : replaced);
+        if (0 < balance + total / 100.0){
+            holds.put(key, cents);
+            heldTotal = total;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Grows or shrinks the hold under key by amount. Budgets are negative holds that grow with each reqBudget and
+     * shrink as lots are won on them or the rest is given back; a hold that reaches zero is dropped, and shrinking
+     * past zero stops at zero.
+     * @param amount change of the hold, negative to hold more
+     * @param key hold key of the item (or budget) the hold is for
+     * @return false if the balance can not cover the larger hold
+     */
+
+    synchronized boolean adjustHold(double amount, long key){
+        long current = holds.get(key);
+        if (current == HoldMap.ABSENT){
+            current = 0;
+        }
+        long next = Math.min(0, current + toCents(amount));
+        long total = heldTotal + next - current;
+        if (next < current && !(0 < balance + total / 100.0)){
+            return false;
+        }
+        if (next == 0){
+            holds.remove(key);
+        } else {
+            holds.put(key, next);
+        }
+        heldTotal = total;
+        return true;
+    }
+
+    /**
+     * Puts back a hold from a journal compaction as it was, without checking it against the balance again. A
+     * withdrawal does not look at holds, so the balance alone may no longer cover every hold.
+     * @param cents amount of the hold in cents
+     * @param key hold key of the item (or budget) the hold is for
+     */
+
+    synchronized void restoreHold(long cents, long key){
+        long replaced = holds.put(key, cents);
+        heldTotal += cents - (replaced == HoldMap.ABSENT ? 0 : replaced);
+    }
+
+    synchronized void removeHold(long key){
+        long cents = holds.remove(key);
+        if (cents != HoldMap.ABSENT){
+            heldTotal -= cents;
+        }
+    }
+
+    /**
+     * Moves the held amount under key into the balance and drops the hold
+     * @param key hold key of the transaction
+     * @return false if there was no hold under key
+     */
+
+    synchronized boolean pushTransfer(long key){
+        long cents = holds.remove(key);
+        if (cents == HoldMap.ABSENT){
+            return false;
+        }
+        heldTotal -= cents;
+        balance += cents / 100.0;
+        dirty = true;
+        return true;
+    }
+
+    synchronized Account snapshot(){
+        return new Account(user, balance, id, type, holds.toMap());
+    }
+
+    /**
+     * This function lets the journal copy every open hold without boxing
+     * @param visitor called with the hold key and the amount in cents of each hold
+     */
+
+    synchronized void forEachHold(HoldMap.Visitor visitor){
+        holds.forEach(visitor);
+    }
+
+    static long toCents(double amount){
+        return Math.round(amount * 100);
+    }
+}
@@ -0,0 +1,246 @@
+package bank;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The AccountStore keeps every account in a fixed width binary file (accounts.dat) that is memory mapped, so the bank
+ * can start without parsing text and can update one account in place instead of rewriting the whole file.
+ *
+ * Layout: a 32 byte header (magic, version, generation, record count) followed by RECORD_SIZE byte records. A record
+ * is the username (1 length byte + 31 bytes), ID, type, and two balance slots each tagged with the generation that
+ * wrote it. A snapshot writes the slot with the older generation and only then bumps the header generation, so a
+ * crash part way through a snapshot leaves the previous snapshot readable.
+ */
+
+class AccountStore {
+    static final String STORE_FILE = "src/bank/accounts.dat";
+    static final int MAX_NAME_BYTES = 31;
+
+    private static final int MAGIC = 0x42414e4b;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 72;
+    private static final int ID_OFFSET = 32;
+    private static final int TYPE_OFFSET = 36;
+    private static final int SLOT_OFFSET = 40;
+    private static final int SLOT_SIZE = 16;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer map;
+    private long generation;
+    private int count;
+    private ConcurrentHashMap<Integer, Integer> slots;
+
+    private AccountStore(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = Math.max(channel.size(), HEADER_SIZE + 1024L * RECORD_SIZE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * This function opens accounts.dat, or creates it from users.txt the first time the bank runs with the binary
+     * store. Every stored username is added to usernames, the accounts themselves are only read by load().
+     * @param usernames the bank's username index to fill
+     * @return the opened store
+     */
+
+    static AccountStore open(Map<String, Integer> usernames) throws IOException {
+        Path path = Paths.get(STORE_FILE);
+        boolean fresh = !path.toFile().exists();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        AccountStore store = new AccountStore(channel);
+        if (fresh){
+            store.importText(new File("src/bank/users.txt"));
+        } else if (store.map.getInt(0) != MAGIC || store.map.getInt(4) != VERSION){
+            throw new IOException(STORE_FILE + " is not an account store");
+        }
+        store.generation = store.map.getLong(8);
+        store.count = store.map.getInt(16);
+        store.slots = new ConcurrentHashMap<>(store.count * 2);
+
+        byte[] name = new byte[MAX_NAME_BYTES];
+        for (int slot = 0; slot < store.count; slot++){
+            int at = HEADER_SIZE + slot * RECORD_SIZE;
+            if (store.currentSlot(at) < 0){
+                continue;
+            }
+            int length = store.map.get(at);
+            store.map.get(at + 1, name, 0, length);
+            int ID = store.map.getInt(at + ID_OFFSET);
+            store.slots.put(ID, slot);
+            usernames.put(new String(name, 0, length, StandardCharsets.UTF_8), ID);
+        }
+        return store;
+    }
+
+    /**
+     * This function converts the old users.txt format (Users, ID, Type, Amount) into records. It only runs once, when
+     * accounts.dat does not exist yet.
+     * @param users the text file to import
+     */
+
+    private void importText(File users) throws IOException {
+        long importedGen = 0;
+        int imported = 0;
+        try (Scanner sc = new Scanner(users)){
+            String[] header = sc.nextLine().split(", ");
+            if (header.length > 4){
+                importedGen = Long.parseLong(header[4]);
+            }
+            while (sc.hasNext()){
+                String[] inputs = sc.nextLine().split(", ");
+                if (inputs[0].getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES){
+                    System.out.println("Skipping account " + inputs[1] + ", the name is longer than " +
+                            MAX_NAME_BYTES + " bytes");
+                    continue;
+                }
+                ensureCapacity(imported + 1);
+                writeRecord(imported, inputs[0], Integer.parseInt(inputs[1]), Integer.parseInt(inputs[2]),
+                        Double.parseDouble(inputs[3]), importedGen);
+                imported++;
+            }
+        } catch (FileNotFoundException e){
+            System.out.println("File not found");
+        }
+        writeHeader(importedGen, imported);
+        map.force();
+        System.out.println("Imported " + imported + " accounts into " + STORE_FILE);
+    }
+
+    long generation(){
+        return generation;
+    }
+
+    boolean contains(int ID){
+        return slots.containsKey(ID);
+    }
+
+    /**
+     * This function reads one account out of the mapped file
+     * @param ID of the account
+     * @return a new ledger for the account, or null if it is not stored
+     */
+
+    AccountLedger load(int ID){
+        Integer slot = slots.get(ID);
+        if (slot == null){
+            return null;
+        }
+        int at = HEADER_SIZE + slot * RECORD_SIZE;
+        byte[] name = new byte[map.get(at)];
+        map.get(at + 1, name);
+        double balance = map.getDouble(at + SLOT_OFFSET + currentSlot(at) * SLOT_SIZE);
+        return new AccountLedger(new String(name, StandardCharsets.UTF_8), ID, map.getInt(at + TYPE_OFFSET),
+                balance, slot);
+    }
+
+    /**
+     * This function writes every changed ledger into its record (new accounts get a record at the end), flushes the
+     * file and then moves the header to generation nextGen. Must not run concurrently with ledger updates.
+     * @param nextGen generation of the new snapshot
+     * @param ledgers every account loaded in memory
+     */
+
+    void writeSnapshot(long nextGen, Collection<AccountLedger> ledgers) throws IOException {
+        int nextCount = count;
+        for (AccountLedger ledger: ledgers){
+            if (!ledger.isDirty()){
+                continue;
+            }
+            int slot = ledger.slot();
+            if (slot < 0){
+                slot = nextCount++;
+                ensureCapacity(nextCount);
+                writeRecord(slot, ledger.user(), ledger.id(), ledger.type(), ledger.balance(), nextGen);
+                ledger.stored(slot);
+            } else {
+                // the slot the current header reads from is the only one that must survive, whatever an unfinished
+                // snapshot left in the other
+                int at = HEADER_SIZE + slot * RECORD_SIZE;
+                int older = currentSlot(at) == 0 ? 1 : 0;
+                map.putDouble(at + SLOT_OFFSET + older * SLOT_SIZE, ledger.balance());
+                map.putLong(at + SLOT_OFFSET + older * SLOT_SIZE + 8, nextGen);
+                ledger.stored(slot);
+            }
+        }
+        map.force();
+        writeHeader(nextGen, nextCount);
+        map.force();
+        for (int slot = count; slot < nextCount; slot++){
+            slots.put(map.getInt(HEADER_SIZE + slot * RECORD_SIZE + ID_OFFSET), slot);
+        }
+        count = nextCount;
+        generation = nextGen;
+    }
+
+    void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+
+    /**
+     * @param at offset of a record
+     * @return the balance slot (0 or 1) that belongs to the current generation, or -1 if the record was written by a
+     * snapshot that never completed
+     */
+
+    private int currentSlot(int at){
+        long genA = map.getLong(at + SLOT_OFFSET + 8);
+        long genB = map.getLong(at + SLOT_OFFSET + SLOT_SIZE + 8);
+        boolean validA = genA >= 0 && genA <= generation;
+        boolean validB = genB >= 0 && genB <= generation;
+        if (validA && (!validB || genA >= genB)){
+            return 0;
+        }
+        return validB ? 1 : -1;
+    }
+
+    private void writeRecord(int slot, String user, int ID, int type, double balance, long gen) throws IOException {
+        byte[] name = user.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES){
+            // a longer name would run into the ID and type fields
+            throw new IOException("Account " + ID + " has a name longer than " + MAX_NAME_BYTES + " bytes");
+        }
+        int at = HEADER_SIZE + slot * RECORD_SIZE;
+        map.put(at, (byte) name.length);
+        map.put(at + 1, name);
+        map.putInt(at + ID_OFFSET, ID);
+        map.putInt(at + TYPE_OFFSET, type);
+        map.putDouble(at + SLOT_OFFSET, balance);
+        map.putLong(at + SLOT_OFFSET + 8, gen);
+        map.putDouble(at + SLOT_OFFSET + SLOT_SIZE, 0);
+        map.putLong(at + SLOT_OFFSET + SLOT_SIZE + 8, -1);
+    }
+
+    private void writeHeader(long gen, int records){
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putLong(8, gen);
+        map.putInt(16, records);
+    }
+
+    private void ensureCapacity(int records) throws IOException {
+        long needed = HEADER_SIZE + (long) records * RECORD_SIZE;
+        if (needed > map.capacity()){
+            map.force();
+            long size = Math.max(needed, HEADER_SIZE + 2L * (map.capacity() - HEADER_SIZE));
+            if (size > Integer.MAX_VALUE){
+                throw new IOException(STORE_FILE + " is full");
+            }
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
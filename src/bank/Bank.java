@@ -3,28 +3,78 @@ package bank;
 import javafx.util.Pair;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Bank {
-    protected static ConcurrentHashMap<Integer, Account> bank = new ConcurrentHashMap<>();
+    protected static ConcurrentHashMap<Integer, AccountLedger> bank = new ConcurrentHashMap<>();
+    protected static ConcurrentHashMap<String, Integer> usernames = new ConcurrentHashMap<>();
     protected static HashMap<Pair<String, Integer>, String> availableAuctions = new HashMap<>();
     protected static HashMap<Integer, PrintWriter> activeClients = new HashMap<>();
+    private static AccountStore store;
     public Bank(){
         try {
-            Scanner sc = new Scanner(new File("src/bank/users.txt"));
-            sc.nextLine();
-            while (sc.hasNext()){
-                String line = sc.nextLine();
-                String[] inputs = line.split(", ");
-                Account account = new Account(inputs[0], Double.parseDouble(inputs[3]), Integer.parseInt(inputs[1]), Integer.parseInt(inputs[2]), new HashMap<>());
-                bank.put(Integer.parseInt(inputs[1]), account);
-                System.out.println(account);
+            store = AccountStore.open(usernames);
+            Journal.open(store.generation(), Bank::replay);
+            checkHeldTotals();
+        } catch (IOException e) {
+            System.out.println("Unable to open account store " + e.getMessage());
+        }
+    }
+
+    /**
+     * This function finds the ledger for ID, reading it from the account store the first time it is used
+     * @param ID of the account
+     * @return the ledger or null if there is no such account
+     */
+
+    static AccountLedger ledger(int ID){
+        AccountLedger ledger = bank.get(ID);
+        if (ledger == null && store != null){
+            ledger = bank.computeIfAbsent(ID, store::load);
+        }
+        return ledger;
+    }
+
+    /**
+     * This function applies one journal entry to the ledgers without journaling it again. Every entry was journaled
+     * because it succeeded, so an entry that fails again is reported instead of dropped silently. A restoreHold entry
+     * (written by a compaction) puts back a hold that passed the balance check when it was placed, without checking
+     * it again.
+     * @param args the split journal entry
+     */
+
+    private static void replay(String[] args){
+        int ID = Integer.parseInt(args[1]);
+        AccountLedger ledger = ledger(ID);
+        boolean applied = switch (args[0]){
+            case "create" -> {
+                AccountLedger account = new AccountLedger(args[3], ID, Integer.parseInt(args[2]), 0);
+                bank.putIfAbsent(ID, account);
+                usernames.putIfAbsent(args[3], ID);
+                yield true;
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found");
+            case "deposit" -> {
+                ledger.deposit(Double.parseDouble(args[2]));
+                yield true;
+            }
+            case "withdraw" -> ledger.withdraw(Double.parseDouble(args[2]));
+            case "hold" -> ledger.hold(Double.parseDouble(args[2]), Long.parseLong(args[3]));
+            case "restoreHold" -> {
+                ledger.restoreHold(Long.parseLong(args[2]), Long.parseLong(args[3]));
+                yield true;
+            }
+            case "adjustHold" -> ledger.adjustHold(Double.parseDouble(args[2]), Long.parseLong(args[3]));
+            case "removeHold" -> {
+                ledger.removeHold(Long.parseLong(args[2]));
+                yield true;
+            }
+            case "pushTransfer" -> ledger.pushTransfer(Long.parseLong(args[2]));
+            default -> false;
+        };
+        if (!applied){
+            System.out.println("Journal entry could not be replayed: " + String.join(" ", args));
         }
     }
 
@@ -32,11 +82,11 @@ public class Bank {
      * This function creates an account record for a new human user with name User and an identification n umber ID
      * @param user the users picked username
      * @param ID the ID of the user
+     * @return false if the username or the ID is already taken
      */
 
-    public static void createHumanUser(String user, int ID){
-        Account account = new Account(user, 0, ID, 0, new HashMap<>());
-        bank.put(ID, account);
+    public static boolean createHumanUser(String user, int ID){
+        return register(new AccountLedger(user, ID, 0, 0));
     }
 
     /**
@@ -44,11 +94,74 @@ public class Bank {
      * ID
      * @param user the users picked username
      * @param ID the ID of the user
+     * @return false if the username or the ID is already taken
+     */
+
+    public static boolean createAuctionHouseUser(String user, int ID){
+        return register(new AccountLedger(user, ID, 1, 0));
+    }
+
+    /**
+     * This function claims the username first and then the ID, so two clients registering at the same time can never
+     * both get the same name or ID. If the ID is taken the username is given back.
+     * @param ledger the new account
+     * @return false if the username or the ID is already taken, or the username is too long to store
+     */
+
+    private static boolean register(AccountLedger ledger){
+        if (ledger.user().getBytes(StandardCharsets.UTF_8).length > AccountStore.MAX_NAME_BYTES){
+            return false;
+        }
+        return Journal.record(ledger, () -> {
+            if (store != null && store.contains(ledger.id())){
+                return false;
+            }
+            if (usernames.putIfAbsent(ledger.user(), ledger.id()) != null){
+                return false;
+            }
+            if (bank.putIfAbsent(ledger.id(), ledger) != null){
+                usernames.remove(ledger.user(), ledger.id());
+                return false;
+            }
+            return true;
+        }, "create " + ledger.id() + " " + ledger.type() + " " + ledger.user());
+    }
+
+    /**
+     * This function looks up the ID of the account with username user
+     * @param user the username
+     * @return the ID or -1 if no account has that username
+     */
+
+    public static int findID(String user){
+        Integer ID = usernames.get(user);
+        return ID == null ? -1 : ID;
+    }
+
+    /**
+     * This function returns a read only snapshot of the account with associated ID
+     * @param ID of the account
+     * @return the account snapshot or null if there is no such account
+     */
+
+    public static Account getAccount(int ID){
+        AccountLedger ledger = ledger(ID);
+        return ledger == null ? null : ledger.snapshot();
+    }
+
+    /**
+     * This function re-adds the holds of every account in memory and compares them with the running held totals
+     * @return the number of accounts whose running total was wrong (and has been corrected)
      */
 
-    public static void createAuctionHouseUser(String user, int ID){
-        Account account = new Account(user, 0, ID, 1, new HashMap<>());
-        bank.put(ID, account);
+    static int checkHeldTotals(){
+        int mismatches = 0;
+        for (AccountLedger ledger: bank.values()){
+            if (!ledger.checkHeldTotal()){
+                mismatches++;
+            }
+        }
+        return mismatches;
     }
 
     /**
@@ -59,11 +172,8 @@ public class Bank {
      */
 
     public static boolean withdraw(int ID, double amount){
-        Account tempAccount = bank.get(ID);
-        if (tempAccount.Account() > amount){
-            bank.remove(ID);
-            Account account = new Account(tempAccount.User(), tempAccount.Account() - amount, ID, tempAccount.Type(), tempAccount.Holds());
-            bank.put(ID, account);
+        AccountLedger ledger = ledger(ID);
+        if (ledger != null && Journal.record(ledger, () -> ledger.withdraw(amount), "withdraw " + ID + " " + amount)){
             return true;
         } else {
             System.out.println("Not enough funds");
@@ -76,15 +186,18 @@ public class Bank {
      * This function deposits an amount of funds to the user with associated ID
      * @param ID of user where funds are deposited
      * @param amount of money deposited to the account.
-     * @return always true
+     * @return false if there is no account with ID
      */
 
     public static boolean deposit(int ID, double amount){
-        Account tempAccount = bank.get(ID);
-        bank.remove(ID);
-        Account account = new Account(tempAccount.User(), tempAccount.Account() + amount, ID, tempAccount.Type(), tempAccount.Holds());
-        bank.put(ID, account);
-        return true;
+        AccountLedger ledger = ledger(ID);
+        if (ledger == null){
+            return false;
+        }
+        return Journal.record(ledger, () -> {
+            ledger.deposit(amount);
+            return true;
+        }, "deposit " + ID + " " + amount);
 
 
     }
@@ -94,21 +207,13 @@ public class Bank {
      * purchase
      * @param ID of user whose hold is placed
      * @param amount amount of money on the hold
-     * @param itemID the ID of the item that is being purchased with the amount
+     * @param key the hold key of the auction house and the item that is being purchased with the amount
      * @return false if there is not sufficient funds or the amount of total holds is over the users account balance.
      */
 
-    public static boolean hold(int ID, double amount, int itemID){
-        Account tempAccount = bank.get(ID);
-        double totalHolds = 0;
-        for(Double hold: tempAccount.Holds().values()){
-            totalHolds = totalHolds +hold;
-        }
-        if (0 < tempAccount.Account() + amount + totalHolds){
-            bank.remove(ID);
-            tempAccount.Holds().put(itemID, amount);
-            Account account = new Account(tempAccount.User(), tempAccount.Account(), ID, tempAccount.Type(),tempAccount.Holds());
-            bank.put(ID, account);
+    public static boolean hold(int ID, double amount, long key){
+        AccountLedger ledger = ledger(ID);
+        if (ledger != null && Journal.record(ledger, () -> ledger.hold(amount, key), "hold " + ID + " " + amount + " " + key)){
             return true;
         } else {
             System.out.println("Not enough funds");
@@ -117,55 +222,73 @@ public class Bank {
 
     }
 
+    /**
+     * This function grows or shrinks a hold on an account, used for the bidding budgets agents give auction houses
+     * @param ID of user whose hold changes
+     * @param amount change of the hold, negative to hold more
+     * @param key hold key of the item (or budget) the hold is for
+     * @return false if there is no account with ID or it can not cover the larger hold
+     */
+
+    public static boolean adjustHold(int ID, double amount, long key){
+        AccountLedger ledger = ledger(ID);
+        return ledger != null && Journal.record(ledger, () -> ledger.adjustHold(amount, key), "adjustHold " + ID + " " + amount + " " + key);
+    }
+
     /**
      * This function removes a hold on an account (does not process funds)
      * @param ID of user whose hold is being removed.
-     * @param itemID of transaction hold that must be removed.
-     * @return always true
+     * @param key hold key of the transaction hold that must be removed.
+     * @return false if there is no account with ID
      */
 
-    public static boolean removeHold(int ID, int itemID){
-        Account tempAccount = bank.get(ID);
-        tempAccount.Holds().remove(itemID);
-        bank.remove(ID);
-        Account account = new Account(tempAccount.User(), tempAccount.Account(), ID, tempAccount.Type(),tempAccount.Holds());
-        bank.put(ID, account);
-        return true;
+    public static boolean removeHold(int ID, long key){
+        AccountLedger ledger = ledger(ID);
+        if (ledger == null){
+            return false;
+        }
+        return Journal.record(ledger, () -> {
+            ledger.removeHold(key);
+            return true;
+        }, "removeHold " + ID + " " + key);
 
     }
 
     /**
      * This function pushes funds that are held on an account.
      * @param ID of user whose funds are pushed
-     * @param itemID item id of transaction
-     * @return
+     * @param key hold key of the transaction
+     * @return false if there is no account with ID or no hold under key
      */
 
-    public static boolean pushTransfer(int ID, int itemID){
-        Account tempAccount = bank.get(ID);
-        double tempPrice = tempAccount.Holds().get(itemID);
-        bank.remove(ID);
-        tempAccount.Holds().remove(itemID);
-        Account account = new Account(tempAccount.User(), tempAccount.Account() + tempPrice, ID, tempAccount.Type(), tempAccount.Holds());
-        bank.put(ID, account);
-        return true;
+    public static boolean pushTransfer(int ID, long key){
+        AccountLedger ledger = ledger(ID);
+        return ledger != null && Journal.record(ledger, () -> ledger.pushTransfer(key), "pushTransfer " + ID + " " + key);
     }
+    /**
+     * This function flushes the journal, writes a final snapshot and stops journaling. Called when the bank quits.
+     */
+
     public synchronized static void close(){
         try {
-            File oldAccounts = new File("src/bank/users.txt");
-            oldAccounts.delete();
-            File newAccounts = new File("src/bank/users.txt");
-            FileWriter docUpdate = new FileWriter(newAccounts);
-            docUpdate.write("Users, ID, Type, Amount\n");
-            for(Account account: bank.values()){
-                docUpdate.write(account.User() + ", " + account.ID() + ", " + account.Type() + ", " + account.Account() + "\n");
-
+            Journal.close();
+            if (store != null){
+                store.close();
             }
-            docUpdate.close();
-
+        } catch (IOException e){
+            System.out.println("Unable to close account store " + e.getMessage());
+        }
+    }
 
-        } catch (Exception e){
+    /**
+     * This function writes every changed account into the account store. Only called by the journal while ledger
+     * updates are blocked.
+     * @param generation generation of the journal that starts from this snapshot
+     */
 
+    static void writeSnapshot(long generation) throws IOException {
+        if (store != null){
+            store.writeSnapshot(generation, bank.values());
         }
     }
 }
@@ -4,52 +4,80 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.Socket;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientConnection implements Runnable{
     private Socket client;
+    private final String hostAddress;
     private int clientID = -1;
     private String clientName;
     private final PrintWriter toClient;
     private final BufferedReader fromClient;
-    private final BlockingQueue<String> inbox;
+    // sessions of the auction houses multiplexed over this connection, by tag
+    private final Map<String, ClientConnection> sessions = new ConcurrentHashMap<>();
+    private final Map<Long, String> holdReplies = new LinkedHashMap<>(){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest){
+            return size() > 4096;
+        }
+    };
+    // items each auction house has been paid for, kept across reconnects so a replayed itemWon is not settled twice
+    private static final Map<Integer, Set<Integer>> settled = new ConcurrentHashMap<>();
     public ClientConnection(Socket client) throws IOException{
         this.client = client;
-        System.out.println(client.getInetAddress().getHostAddress());
+        hostAddress = client.getInetAddress().getHostAddress();
+        System.out.println(hostAddress);
         toClient = new PrintWriter(client.getOutputStream(),true);
         InputStreamReader isr =
                 new InputStreamReader(client.getInputStream());
         fromClient = new BufferedReader(isr);
-        inbox = new ArrayBlockingQueue<>(100);
     }
 
+    /**
+     * Creates a connection for the selector server. There is no socket or reader, the selector feeds each line to
+     * processClientRequest and everything printed to toClient goes to out.
+     * @param hostAddress address of the client
+     * @param out writer that queues output on the client's channel
+     */
+    public ClientConnection(String hostAddress, Writer out){
+        this.hostAddress = hostAddress;
+        System.out.println(hostAddress);
+        toClient = new PrintWriter(out, true);
+        fromClient = null;
+    }
+
+    /**
+     * Blocks on the client's next line and handles it as soon as it arrives, until the client disconnects
+     */
+
     @Override
     public void run() {
         String input, output;
         while (!client.isClosed()) {
-            try {
-                Thread.sleep(100);
-            }catch (InterruptedException ei){}
-
             try {
                 input = fromClient.readLine();
             } catch (IOException e) {
                 input = null;
             }
 
-            if (input != null) {
-                output = processClientRequest(input);
-
-                if (output != null) {
-                    toClient.println(output);
-                    output = null;
-                }
+            if (input == null) {
+                break;
             }
 
-            if (!inbox.isEmpty()) {
-                toClient.println(inbox.poll());
+            output = processClientRequest(input);
+
+            if (output != null) {
+                toClient.println(output);
+                output = null;
             }
         }
 
@@ -59,50 +87,36 @@ public class ClientConnection implements Runnable{
     public synchronized String processClientRequest(String request){
         String status = "";
 
+        if (request.startsWith("@")){
+            return processSessionRequest(request);
+        }
+
         String[] args = request.split(" ");
         System.out.println("Message received from client " + request);
 
         switch (args[0]){
-            case "reqHold" -> {
-                boolean success = true;
-                success = success == Bank.hold(Integer.parseInt(args[1]), Double.parseDouble(args[2]) * -1, Integer.parseInt(args[3]));
-                if(success) {
-                    Bank.hold(clientID, Double.parseDouble(args[2]), Integer.parseInt(args[3]));
-                    System.out.println("holdSuccessful " + args[1] + " " + args[2] + " " + args[3]);
-                    toClient.println("holdSuccessful " + args[1] + " " + args[2] + " " + args[3]);
-                } else {
-                    toClient.println("holdFailed " + args[1] + " " + args[3]);
-                }
-            }
+            case "reqHold", "removeHold" -> ItemLanes.execute(holdKey(Integer.parseInt(args[3])), () -> processItemRequest(args));
+            case "itemWon" -> ItemLanes.execute(holdKey(Integer.parseInt(args[1])), () -> processItemRequest(args));
+            case "reqBudget", "releaseBudget" -> ItemLanes.execute(budgetKey(), () -> processItemRequest(args));
+            case "reconcile" -> toClient.println(reconcile(args));
             case "ReturningUser" -> {
-
-                int work = 0;
-                for(Account account: Bank.bank.values()){
-                    if(account.User().equals(args[1]) && account.ID() == Integer.parseInt(args[2])){
-                        clientID = Integer.parseInt(args[2]);
-                        clientName = args[1];
-                        toClient.println("SuccessfulLogin");
-                        if (account.Type() == 0){
-                            Bank.activeClients.put(account.ID(), toClient);
-                        }
-
-                        work ++;
+                AccountLedger account = Bank.ledger(Bank.findID(args[1]));
+                if (account != null && account.id() == Integer.parseInt(args[2])){
+                    clientID = account.id();
+                    clientName = args[1];
+                    toClient.println("SuccessfulLogin");
+                    if (account.type() == 0){
+                        Bank.activeClients.put(account.id(), toClient);
                     }
-                }
-                if (work == 0){
+                } else {
                     toClient.println("FailedLogin");
                 }
             }
             case "CheckBalance" -> {
-                double holdAmt = 0;
-                for (Double hold:
-                        Bank.bank.get(clientID).Holds().values()) {
-                    holdAmt += hold;
-                }
-                toClient.println("Balances " + Bank.bank.get(clientID).Account() + " " + holdAmt);
+                toClient.println(balances(clientID));
             }
             case "open" -> {
-                Pair<String, Integer> auction = new Pair<>(client.getInetAddress().getHostAddress(), Integer.parseInt(args[1]));
+                Pair<String, Integer> auction = new Pair<>(hostAddress, Integer.parseInt(args[1]));
                 Bank.availableAuctions.put(auction, clientName);
                 for(PrintWriter output: Bank.activeClients.values()){
                     output.print("Auctions ");
@@ -121,32 +135,9 @@ public class ClientConnection implements Runnable{
                 }
                 toClient.println();
 
-            }
-            case "removeHold" -> {
-                Bank.removeHold(Integer.parseInt(args[1]), Integer.parseInt(args[3]));
-                Bank.removeHold(clientID, Integer.parseInt(args[3]));
-            }
-            case "itemWon" -> {
-                Bank.pushTransfer(clientID, Integer.parseInt(args[1]));
-                Bank.pushTransfer(Integer.parseInt(args[2]), Integer.parseInt(args[1]));
-                double holdAmt = 0;
-                for (Double hold:
-                        Bank.bank.get(Integer.parseInt(args[2])).Holds().values()) {
-                    holdAmt += hold;
-                }
-                Bank.activeClients.get(Integer.parseInt(args[2])).println(
-                        "Balances " + Bank.bank.get(Integer.parseInt(args[2])).Account() + " " + holdAmt);
-
             }
             case "registerAuction" -> {
-                int repeat = 0;
-                for(Account accounts: Bank.bank.values()){
-                    if (accounts.User().equals(args[1]) || accounts.ID() == Integer.parseInt(args[2])){
-                        repeat++;
-                    }
-                }
-                if (repeat == 0){
-                    Bank.createAuctionHouseUser(args[1], Integer.parseInt(args[2]));
+                if (Bank.createAuctionHouseUser(args[1], Integer.parseInt(args[2]))){
                     clientName = args[1];
                     clientID = Integer.parseInt(args[2]);
                     toClient.println("SuccessfulLogin");
@@ -157,14 +148,7 @@ public class ClientConnection implements Runnable{
 
             }
             case "registerAgent" -> {
-                int repeat = 0;
-                for(Account accounts: Bank.bank.values()){
-                    if (accounts.User().equals(args[1]) || accounts.ID() == Integer.parseInt(args[2])){
-                        repeat++;
-                    }
-                }
-                if (repeat == 0){
-                    Bank.createHumanUser(args[1], Integer.parseInt(args[2]));
+                if (Bank.createHumanUser(args[1], Integer.parseInt(args[2]))){
                     clientName = args[1];
                     clientID = Integer.parseInt(args[2]);
                     toClient.println("SuccessfulLogin");
@@ -175,31 +159,279 @@ public class ClientConnection implements Runnable{
             }
             case "deposit" -> {
                 Bank.deposit(Integer.parseInt(args[1]),Double.parseDouble(args[2]));
-                double holdAmt = 0;
-                for (Double hold:
-                        Bank.bank.get(clientID).Holds().values()) {
-                    holdAmt += hold;
-                }
-                toClient.println("Balances " + Bank.bank.get(clientID).Account() + " " + holdAmt);
+                toClient.println(balances(clientID));
             }
             case "withdraw" -> {
                 Bank.withdraw(Integer.parseInt(args[1]),Double.parseDouble(args[2]));
-                double holdAmt = 0;
-                for (Double hold:
-                        Bank.bank.get(clientID).Holds().values()) {
-                    holdAmt += hold;
-                }
-                toClient.println("Balances " + Bank.bank.get(clientID).Account() + " " + holdAmt);
+                toClient.println(balances(clientID));
             }
         }
         return status;
     }
 
+    /**
+     * This function hands a request tagged "@session request" to that session of the connection. Many auction houses
+     * can share one connection this way; each session is a ClientConnection of its own (its own login, budget key and
+     * hold replies) whose replies go back over this connection with the same tag.
+     * @param request the tagged request
+     * @return null, the session answers for itself
+     */
+
+    private String processSessionRequest(String request){
+        int space = request.indexOf(' ');
+        if (space < 0){
+            return null;
+        }
+        String tag = request.substring(0, space);
+        ClientConnection session = sessions.computeIfAbsent(tag, t -> new ClientConnection(hostAddress, new SessionWriter(t)));
+        String output = session.processClientRequest(request.substring(space + 1));
+        if (output != null && !output.isEmpty()){
+            session.toClient.println(output);
+        }
+        return null;
+    }
+
+    /**
+     * Writer of a session: collects what the session prints and sends every complete line over the shared connection
+     * behind the session's tag, one line at a time so sessions never mix inside a line.
+     */
+
+    private final class SessionWriter extends Writer {
+        private final String tag;
+        private final StringBuilder line = new StringBuilder();
+
+        SessionWriter(String tag){
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length){
+            synchronized (line){
+                for (int a = offset; a < offset + length; a++){
+                    if (chars[a] == '\n'){
+                        toClient.println(tag + " " + line);
+                        line.setLength(0);
+                    } else if (chars[a] != '\r'){
+                        line.append(chars[a]);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void flush(){
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    /**
+     * This function handles a request about one item (or an agent's budget) from an auction house. It runs on the
+     * item's lane, so requests for other items can wait on the journal at the same time. A reqHold may end with a
+     * correlation ID, which is echoed at the end of the reply; a repeated correlation ID (a retry) gets the first
+     * reply again instead of placing the hold twice.
+     * @param args the request split on spaces
+     */
+
+    private void processItemRequest(String[] args){
+        switch (args[0]){
+            case "reqHold" -> {
+                String correlation = args.length > 4 ? " " + args[4] : "";
+                String reply;
+                if (args.length > 4){
+                    synchronized (holdReplies){
+                        reply = holdReplies.get(Long.parseLong(args[4]));
+                    }
+                    if (reply != null){
+                        toClient.println(reply);
+                        return;
+                    }
+                }
+                long key = holdKey(Integer.parseInt(args[3]));
+                boolean success = Bank.hold(Integer.parseInt(args[1]), Double.parseDouble(args[2]) * -1, key);
+                if (success){
+                    Bank.hold(clientID, Double.parseDouble(args[2]), key);
+                    reply = "holdSuccessful " + args[1] + " " + args[2] + " " + args[3] + correlation;
+                } else {
+                    reply = "holdFailed " + args[1] + " " + args[3] + correlation;
+                }
+                if (args.length > 4){
+                    synchronized (holdReplies){
+                        holdReplies.put(Long.parseLong(args[4]), reply);
+                    }
+                }
+                System.out.println(reply);
+                toClient.println(reply);
+            }
+            case "removeHold" -> {
+                // only the bidder's hold goes; the house's mirror belongs to whoever holds the lot now and is set
+                // again by the next hold and by itemWon
+                Bank.removeHold(Integer.parseInt(args[1]), holdKey(Integer.parseInt(args[3])));
+            }
+            case "reqBudget" -> {
+                // the agent's budget for this auction house is a hold under the house's budget key
+                if (Bank.adjustHold(Integer.parseInt(args[1]), Double.parseDouble(args[2]) * -1, budgetKey())){
+                    toClient.println("budgetGranted " + args[1] + " " + args[2]);
+                } else {
+                    toClient.println("budgetDenied " + args[1] + " " + args[2]);
+                }
+            }
+            case "releaseBudget" -> Bank.adjustHold(Integer.parseInt(args[1]), Double.parseDouble(args[2]), budgetKey());
+            case "itemWon" -> {
+                boolean budget = false, replay = false;
+                for (int a = 4; a < args.length; a++){
+                    budget |= args[a].equals("budget");
+                    replay |= args[a].equals("replay");
+                }
+                Set<Integer> paid = settledItems();
+                if (replay && paid.contains(Integer.parseInt(args[1]))){
+                    // settled before the house went down, it only missed the reply
+                    toClient.println("fundsTransferred " + args[1]);
+                    return;
+                }
+                if (budget){
+                    // won on a budget, free the price from the budget before settling
+                    Bank.adjustHold(Integer.parseInt(args[2]), Double.parseDouble(args[3]), budgetKey());
+                }
+                if (args.length > 3){
+                    // settle both holds at the final price, the winner may have held more (a proxy maximum)
+                    double price = Double.parseDouble(args[3]);
+                    Bank.hold(Integer.parseInt(args[2]), price * -1, holdKey(Integer.parseInt(args[1])));
+                    Bank.hold(clientID, price, holdKey(Integer.parseInt(args[1])));
+                }
+                Bank.pushTransfer(clientID, holdKey(Integer.parseInt(args[1])));
+                Bank.pushTransfer(Integer.parseInt(args[2]), holdKey(Integer.parseInt(args[1])));
+                PrintWriter winner = Bank.activeClients.get(Integer.parseInt(args[2]));
+                if (winner != null){
+                    winner.println(balances(Integer.parseInt(args[2])));
+                }
+                paid.add(Integer.parseInt(args[1]));
+                toClient.println("fundsTransferred " + args[1]);
+
+            }
+        }
+    }
+
+    /**
+     * This function brings the holds of an auction house's open lots in line with the house's books after the house
+     * restarted from its bid log. Every budget given to the house is released (the house lost them), holds on the
+     * house's lots by agents who do not lead them are removed, and each leader is held for what the house says it
+     * leads with. Only holds under this house's keys are touched, other houses may sell items with the same IDs. A house starting a new auction sends "reconcile new" instead, which only releases the budgets and
+     * forgets which items the house was paid for. Runs on the connection thread before anything else the house sends.
+     * @param args "reconcile" followed by itemID:leaderID:amount for every open lot (leader -1 for no bids), or "new"
+     * @return "reconciled" and the number of lots, after a "reconcileFailed itemID leaderID" for every leader whose
+     * hold could not be placed
+     */
+
+    private String reconcile(String[] args){
+        Map<Integer, Integer> leaders = new HashMap<>();
+        Map<Integer, Double> amounts = new HashMap<>();
+        boolean fresh = args.length > 1 && args[1].equals("new");
+        for (int a = fresh ? 2 : 1; a < args.length; a++){
+            String[] lot = args[a].split(":");
+            leaders.put(Integer.parseInt(lot[0]), Integer.parseInt(lot[1]));
+            amounts.put(Integer.parseInt(lot[0]), Double.parseDouble(lot[2]));
+        }
+        if (fresh){
+            settledItems().clear();
+        }
+
+        List<long[]> stale = new ArrayList<>();
+        Map<Integer, Long> held = new HashMap<>();
+        for (AccountLedger ledger : Bank.bank.values()){
+            if (ledger.id() == clientID){
+                continue;
+            }
+            ledger.forEachHold((key, cents) -> {
+                if ((int) (key >>> 32) != clientID){
+                    return;
+                }
+                int itemID = (int) key;
+                if (key == budgetKey()){
+                    stale.add(new long[]{ledger.id(), key});
+                } else if (leaders.containsKey(itemID) && leaders.get(itemID) == ledger.id()){
+                    held.put(itemID, cents);
+                } else if (leaders.containsKey(itemID)){
+                    stale.add(new long[]{ledger.id(), key});
+                }
+            });
+        }
+        for (long[] hold : stale){
+            Bank.removeHold((int) hold[0], hold[1]);
+        }
+
+        for (Map.Entry<Integer, Integer> lot : leaders.entrySet()){
+            int itemID = lot.getKey(), leader = lot.getValue();
+            double amount = amounts.get(itemID);
+            Long cents = held.get(itemID);
+            long key = holdKey(itemID);
+            if (leader < 0){
+                Bank.removeHold(clientID, key);
+            } else if ((cents != null && cents == AccountLedger.toCents(-amount)) || Bank.hold(leader, amount * -1, key)){
+                Bank.hold(clientID, amount, key);
+            } else {
+                Bank.removeHold(clientID, key);
+                toClient.println("reconcileFailed " + itemID + " " + leader);
+            }
+        }
+        System.out.println("Reconciled " + leaders.size() + " lots of " + clientName);
+        return "reconciled " + leaders.size();
+    }
+
+    /**
+     * @return the items this auction house has been paid for, most recent last
+     */
+
+    private Set<Integer> settledItems(){
+        return settled.computeIfAbsent(clientID, id -> Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<>(){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest){
+                return size() > 4096;
+            }
+        })));
+    }
+
+    /**
+     * This function makes the bank hold key of one of this auction house's items. The house's ID is the high half and
+     * the item ID the low half, so houses that sell items with the same IDs never replace or remove each other's holds.
+     * @param itemID the item, or -1 for the budgets given to this house
+     * @return the hold key
+     */
+
+    private long holdKey(int itemID){
+        return (long) clientID << 32 | (itemID & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the hold key of budgets given to this auction house. Item IDs are never negative, so it is never the key
+     * of one of the house's items.
+     */
+
+    private long budgetKey(){
+        return holdKey(-1);
+    }
+
+    /**
+     * Builds the Balances message for an account from its running totals
+     * @param ID of the account
+     * @return "Balances balance heldFunds"
+     */
+    private String balances(int ID){
+        AccountLedger ledger = Bank.ledger(ID);
+        synchronized (ledger){
+            return "Balances " + ledger.balance() + " " + ledger.heldTotal();
+        }
+    }
+
     public void close(){
         try {
             toClient.close();
-            fromClient.close();
-            client.close();
+            if (client != null){
+                fromClient.close();
+                client.close();
+            }
         } catch (Exception e){
 
         }
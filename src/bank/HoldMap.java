@@ -0,0 +1,162 @@
+package bank;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HoldMap stores the open holds of one account as hold key -> amount in cents, in two parallel primitive arrays
+ * with open addressing (linear probing). A hold key is the auction house's ID in the high half and the item ID in the
+ * low half (see ClientConnection.holdKey). Holds are placed and removed constantly while bidding, so removal shifts
+ * the following entries back instead of leaving tombstones, and the arrays are only allocated once the account
+ * places its first hold. Long.MIN_VALUE is not a valid key.
+ */
+
+class HoldMap {
+    static final long ABSENT = Long.MIN_VALUE;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int FIRST_CAPACITY = 4;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    interface Visitor {
+        void accept(long key, long cents);
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * @param key the hold key
+     * @return the hold under key in cents, or ABSENT
+     */
+
+    long get(long key){
+        if (keys == null){
+            return ABSENT;
+        }
+        int mask = keys.length - 1;
+        for (int index = mix(key) & mask; keys[index] != EMPTY; index = (index + 1) & mask){
+            if (keys[index] == key){
+                return values[index];
+            }
+        }
+        return ABSENT;
+    }
+
+    /**
+     * @param key the hold key
+     * @param cents the hold amount in cents
+     * @return the hold that was replaced, or ABSENT
+     */
+
+    long put(long key, long cents){
+        if (key == EMPTY){
+            throw new IllegalArgumentException("Invalid hold key " + key);
+        }
+        if (keys == null){
+            keys = new long[FIRST_CAPACITY];
+            values = new long[FIRST_CAPACITY];
+            Arrays.fill(keys, EMPTY);
+        }
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        while (keys[index] != EMPTY){
+            if (keys[index] == key){
+                long old = values[index];
+                values[index] = cents;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = cents;
+        size++;
+        if (size * 4 > keys.length * 3){
+            resize(keys.length * 2);
+        }
+        return ABSENT;
+    }
+
+    /**
+     * @param key the hold key
+     * @return the hold that was removed, or ABSENT
+     */
+
+    long remove(long key){
+        if (keys == null){
+            return ABSENT;
+        }
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        while (keys[index] != key){
+            if (keys[index] == EMPTY){
+                return ABSENT;
+            }
+            index = (index + 1) & mask;
+        }
+        long old = values[index];
+        size--;
+        // shift back every following entry that would no longer be reachable across the gap
+        int gap = index;
+        index = (index + 1) & mask;
+        while (keys[index] != EMPTY){
+            int home = mix(keys[index]) & mask;
+            if (((index - home) & mask) >= ((index - gap) & mask)){
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        if (size == 0){
+            keys = null;
+            values = null;
+        }
+        return old;
+    }
+
+    void forEach(Visitor visitor){
+        if (keys == null){
+            return;
+        }
+        for (int index = 0; index < keys.length; index++){
+            if (keys[index] != EMPTY){
+                visitor.accept(keys[index], values[index]);
+            }
+        }
+    }
+
+    /**
+     * @return a boxed copy of the holds in dollars, for Account snapshots
+     */
+
+    Map<Long, Double> toMap(){
+        HashMap<Long, Double> copy = new HashMap<>();
+        forEach((key, cents) -> copy.put(key, cents / 100.0));
+        return copy;
+    }
+
+    private void resize(int capacity){
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int index = 0; index < oldKeys.length; index++){
+            if (oldKeys[index] != EMPTY){
+                put(oldKeys[index], oldValues[index]);
+            }
+        }
+    }
+
+    private static int mix(long key){
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,46 @@
+package bank;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ItemLanes runs the item requests of auction houses (reqHold, removeHold and itemWon) on a fixed set of single
+ * threaded lanes, picked by hold key (auction house and item). Requests for one item still run in the order they
+ * arrived, but requests for different items run side by side, so many holds wait on the journal at the same time and
+ * share its group commits instead of queuing behind each other on the auction's connection. The number of lanes is
+ * -Dbank.itemLanes, default 64.
+ */
+
+class ItemLanes {
+    private static final ExecutorService[] lanes = new ExecutorService[Integer.getInteger("bank.itemLanes", 64)];
+
+    static {
+        for (int index = 0; index < lanes.length; index++){
+            int number = index;
+            lanes[index] = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "bank-item-lane-" + number);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private ItemLanes(){
+    }
+
+    /**
+     * This function queues task on the lane of a hold key
+     * @param key hold key of the item the request is about
+     * @param task the request
+     */
+
+    static void execute(long key, Runnable task){
+        lanes[(int) Math.floorMod(key ^ key >>> 32, (long) lanes.length)].execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Bad item request " + e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,303 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * The Journal is an append only log of every ledger operation the bank performs. Operations are queued by the request
+ * threads and written by a single writer thread, which fsyncs once per batch (group commit) and then wakes up every
+ * request that was in that batch. After COMPACT_AFTER entries the writer writes the changed accounts into the
+ * AccountStore and starts a fresh journal, so the log never grows without bound. The store has no holds, so the open
+ * holds start the fresh journal as restoreHold entries, which replay them as they were.
+ *
+ * Snapshots and journals carry a generation number. A journal is only replayed on top of the snapshot with the same
+ * generation, so a crash in the middle of a compaction can never apply an operation twice.
+ *
+ * If a batch can not be written, every request in it fails and the journal is broken: from then on no ledger
+ * operation is applied, so the bank never answers success for anything that is not on disk.
+ */
+
+class Journal implements Runnable {
+    static final String JOURNAL_FILE = "src/bank/journal.txt";
+    static final String NEXT_JOURNAL_FILE = "src/bank/journal.tmp";
+    private static final int COMPACT_AFTER = 50000;
+
+    private static final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    private static final Object lock = new Object();
+    private static ArrayList<String> pending = new ArrayList<>();
+    private static long appended = 0;
+    private static long flushed = 0;
+    private static long durable = 0;
+    private static boolean broken = false;
+    private static boolean running = false;
+    private static long generation;
+    private static FileChannel channel;
+    private static Thread writer;
+
+    private Journal(){
+    }
+
+    /**
+     * This function replays the journal that belongs to the snapshot with generation snapshotGen and then starts the
+     * writer thread. Called once by the Bank constructor after the account store has been opened.
+     * @param snapshotGen generation of the snapshot that was loaded
+     * @param replay called with the split arguments of each journal entry
+     */
+
+    static void open(long snapshotGen, Consumer<String[]> replay) throws IOException {
+        generation = snapshotGen;
+        Path journal = Paths.get(JOURNAL_FILE);
+        Path next = Paths.get(NEXT_JOURNAL_FILE);
+        if (readGeneration(next) == snapshotGen){
+            // crashed after the snapshot was swapped in but before the new journal was
+            Files.move(next, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.deleteIfExists(next);
+
+        if (readGeneration(journal) == snapshotGen){
+            try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)){
+                reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null){
+                    if (!line.isEmpty()){
+                        replay.accept(line.split(" "));
+                    }
+                }
+            }
+        } else {
+            writeJournal(journal, snapshotGen, new ArrayList<>());
+        }
+
+        channel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        running = true;
+        writer = new Thread(new Journal(), "bank-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * This function runs op while holding the account's monitor and, if it succeeds, queues entry in the journal in
+     * the same order the op was applied. It then waits (outside of any lock) until the entry is on disk.
+     * @param account the object whose monitor orders operations on this account
+     * @param op the ledger operation
+     * @param entry journal line describing op
+     * @return the result of op, or false if the entry could not be written or the journal is broken
+     */
+
+    static boolean record(Object account, BooleanSupplier op, String entry){
+        boolean success;
+        long ticket = 0;
+        gate.readLock().lock();
+        try {
+            synchronized (account){
+                if (isBroken()){
+                    return false;
+                }
+                success = op.getAsBoolean();
+                if (success){
+                    ticket = append(entry);
+                }
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+        if (success){
+            success = awaitFlush(ticket);
+        }
+        return success;
+    }
+
+    private static boolean isBroken(){
+        synchronized (lock){
+            return broken;
+        }
+    }
+
+    private static long append(String entry){
+        synchronized (lock){
+            if (!running){
+                return 0;
+            }
+            pending.add(entry);
+            lock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    private static boolean awaitFlush(long ticket){
+        synchronized (lock){
+            while (running && flushed < ticket){
+                try {
+                    lock.wait();
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return ticket <= durable;
+        }
+    }
+
+    /**
+     * Writer loop. Takes everything queued since the last batch, writes it, fsyncs once and releases the waiting
+     * requests.
+     */
+
+    @Override
+    public void run() {
+        long sinceCompaction = 0;
+        while (true){
+            ArrayList<String> batch;
+            synchronized (lock){
+                while (running && pending.isEmpty()){
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (!running){
+                    return;
+                }
+            }
+            try {
+                // the batch is taken under the gate so a compaction can not snapshot it and then see it written again
+                gate.readLock().lock();
+                try {
+                    synchronized (lock){
+                        batch = pending;
+                        pending = new ArrayList<>();
+                    }
+                    flush(batch);
+                } finally {
+                    gate.readLock().unlock();
+                }
+                sinceCompaction += batch.size();
+                // a snapshot now would store the operations of the failed batch
+                if (sinceCompaction >= COMPACT_AFTER && !isBroken()){
+                    compact();
+                    sinceCompaction = 0;
+                }
+            } catch (IOException e){
+                System.out.println("Journal write failed, refusing ledger operations " + e.getMessage());
+            }
+        }
+    }
+
+    private static void flush(ArrayList<String> batch) throws IOException {
+        if (batch.isEmpty()){
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String entry: batch){
+            lines.append(entry).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        boolean written = false;
+        try {
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+            written = true;
+        } finally {
+            // the waiting requests are let go either way, but only a written batch counts as durable
+            synchronized (lock){
+                flushed += batch.size();
+                if (written && !broken){
+                    durable = flushed;
+                } else {
+                    broken = true;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * This function blocks new ledger operations, writes whatever is still queued, writes a snapshot of every account
+     * and starts a new journal that holds only the holds that are still open.
+     */
+
+    static void compact() throws IOException {
+        gate.writeLock().lock();
+        try {
+            ArrayList<String> batch;
+            synchronized (lock){
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            flush(batch);
+
+            long nextGen = generation + 1;
+            Bank.checkHeldTotals();
+            ArrayList<String> openHolds = new ArrayList<>();
+            for (AccountLedger ledger: Bank.bank.values()){
+                // restored as they are, they were checked against the balance when they were placed
+                ledger.forEachHold((key, cents) ->
+                        openHolds.add("restoreHold " + ledger.id() + " " + cents + " " + key));
+            }
+            Path next = Paths.get(NEXT_JOURNAL_FILE);
+            writeJournal(next, nextGen, openHolds);
+            Bank.writeSnapshot(nextGen);
+            channel.close();
+            Files.move(next, Paths.get(JOURNAL_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(Paths.get(JOURNAL_FILE), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            generation = nextGen;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This function compacts one last time and stops the writer thread
+     */
+
+    static void close() throws IOException {
+        if (!running){
+            return;
+        }
+        if (!isBroken()){
+            compact();
+        }
+        synchronized (lock){
+            running = false;
+            lock.notifyAll();
+        }
+        channel.close();
+    }
+
+    private static void writeJournal(Path path, long gen, ArrayList<String> entries) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile())){
+            StringBuilder lines = new StringBuilder("generation " + gen + "\n");
+            for (String entry: entries){
+                lines.append(entry).append('\n');
+            }
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private static long readGeneration(Path path){
+        if (!Files.exists(path)){
+            return -1;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+            String header = reader.readLine();
+            if (header != null && header.startsWith("generation ")){
+                return Long.parseLong(header.substring("generation ".length()).trim());
+            }
+        } catch (IOException | NumberFormatException e){
+            System.out.println("Unreadable journal " + path);
+        }
+        return -1;
+    }
+}
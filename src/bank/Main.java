@@ -1,18 +1,28 @@
 package bank;
 
 
+import java.io.IOException;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Scanner;
 
 public class Main {
 
 
 
-    public static void main(String[] args) throws UnknownHostException, InterruptedException {
+    /**
+     * args[0] = port, args[1] = "nio" to run the selector server instead of one thread per connection (optional)
+     */
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println(args[0]);
         Bank bank = new Bank();
-        Server server = new Server(Integer.parseInt(args[0]));
+        Server server;
+        if (args.length > 1 && args[1].equalsIgnoreCase("nio")) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            server = new SelectorServer(Integer.parseInt(args[0]), Math.max(1, cores / 2), Math.max(4, cores * 2));
+        } else {
+            server = new Server(Integer.parseInt(args[0]));
+        }
         System.out.println(InetAddress.getLocalHost().getHostAddress());
         Thread thread = new Thread(server);
         thread.start();
@@ -0,0 +1,286 @@
+package bank;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non blocking version of the bank server. A few event loops, each with its own Selector, read newline framed
+ * messages from every connection into one reusable buffer per loop and write replies from a per connection queue.
+ * Complete lines are handed to a worker pool which runs the normal ClientConnection.processClientRequest, one line
+ * at a time per connection, since requests may block on the journal. Idle connections only cost their channel and a
+ * few small objects, so one bank can hold tens of thousands of agents.
+ */
+
+public class SelectorServer extends Server {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final Queue<Connection> connections = new ConcurrentLinkedQueue<>();
+    private int nextLoop = 0;
+
+    /**
+     * @param port port to listen on
+     * @param loopCount number of selector threads
+     * @param workerCount number of threads running requests
+     */
+    public SelectorServer(int port, int loopCount, int workerCount) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        System.out.println(port);
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++){
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "bank-selector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        workers = Executors.newFixedThreadPool(workerCount);
+    }
+
+    /**
+     * Accepts connections and hands them to the event loops in turn
+     */
+
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()){
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            } catch (IOException e) {}
+        }
+    }
+
+    @Override
+    public void close(){
+        try {
+            serverChannel.close();
+        } catch (IOException e) {}
+        for (Connection connection: connections){
+            connection.close();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * One selector thread. Other threads only talk to it through its queues followed by a wakeup.
+     */
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> wantWrite = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel){
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void wantsWrite(Connection connection){
+            wantWrite.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (serverChannel.isOpen()){
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null){
+                        Connection connection = new Connection(channel, this);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        connections.add(connection);
+                    }
+                    Connection writer;
+                    while ((writer = wantWrite.poll()) != null){
+                        writer.write();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()){
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()){
+                            connection.read(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()){
+                            connection.write();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Selector failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one client channel: the partial line being read, the lines waiting for a worker and the bytes
+     * waiting to be written.
+     */
+
+    private final class Connection extends Writer {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final ClientConnection client;
+        private SelectionKey key;
+        private byte[] partial = new byte[0];
+        private int partialLength = 0;
+        private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        private final StringBuilder pendingOutput = new StringBuilder();
+
+        Connection(SocketChannel channel, EventLoop loop) throws IOException {
+            this.channel = channel;
+            this.loop = loop;
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            client = new ClientConnection(remote.getAddress().getHostAddress(), this);
+        }
+
+        /**
+         * Reads whatever is available and queues every complete line. Runs on the event loop.
+         */
+
+        void read(ByteBuffer buffer){
+            int count;
+            do {
+                buffer.clear();
+                try {
+                    count = channel.read(buffer);
+                } catch (IOException e) {
+                    count = -1;
+                }
+                if (count < 0){
+                    close();
+                    return;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()){
+                    byte next = buffer.get();
+                    if (next == '\n'){
+                        int length = partialLength;
+                        if (length > 0 && partial[length - 1] == '\r'){
+                            length--;
+                        }
+                        requests.add(new String(partial, 0, length, StandardCharsets.UTF_8));
+                        partialLength = 0;
+                    } else {
+                        if (partialLength == partial.length){
+                            partial = Arrays.copyOf(partial, Math.max(64, partial.length * 2));
+                        }
+                        partial[partialLength++] = next;
+                    }
+                }
+            } while (count == buffer.capacity());
+            if (partialLength == 0 && partial.length > 1024){
+                partial = new byte[0];
+            }
+            if (!requests.isEmpty() && scheduled.compareAndSet(false, true)){
+                workers.execute(this::drainRequests);
+            }
+        }
+
+        /**
+         * Runs the queued lines in order on a worker thread
+         */
+
+        private void drainRequests(){
+            String request;
+            while ((request = requests.poll()) != null){
+                try {
+                    client.processClientRequest(request);
+                } catch (RuntimeException e) {
+                    System.out.println("Bad request " + request);
+                }
+            }
+            scheduled.set(false);
+            if (!requests.isEmpty() && scheduled.compareAndSet(false, true)){
+                workers.execute(this::drainRequests);
+            }
+        }
+
+        /**
+         * Writes queued output until the socket would block. Runs on the event loop.
+         */
+
+        void write(){
+            if (!key.isValid()){
+                return;
+            }
+            try {
+                ByteBuffer next;
+                while ((next = outbox.peek()) != null){
+                    channel.write(next);
+                    if (next.hasRemaining()){
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    outbox.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length){
+            synchronized (lock){
+                pendingOutput.append(chars, offset, length);
+            }
+        }
+
+        /**
+         * Called by the PrintWriter on every println. Moves everything printed so far to the write queue.
+         */
+
+        @Override
+        public void flush(){
+            synchronized (lock){
+                if (pendingOutput.length() == 0){
+                    return;
+                }
+                outbox.add(ByteBuffer.wrap(pendingOutput.toString().getBytes(StandardCharsets.UTF_8)));
+                pendingOutput.setLength(0);
+            }
+            loop.wantsWrite(this);
+        }
+
+        @Override
+        public void close(){
+            connections.remove(this);
+            if (key != null){
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+    }
+}
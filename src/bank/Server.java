@@ -9,6 +9,9 @@ import java.util.ArrayList;
 public class Server implements Runnable {
     ServerSocket serverSocket;
     ArrayList<ClientConnection> clientList = new ArrayList<>();
+    protected Server(){
+    }
+
     public Server(int port) {
         try{
             serverSocket = new ServerSocket(port);
@@ -24,6 +27,7 @@ public class Server implements Runnable {
         while (true){
             try {
                 Socket clients = serverSocket.accept();
+                clients.setTcpNoDelay(true);
                 ClientConnection cc = new ClientConnection(clients);
                 clientList.add(cc);
                 Thread thread = new Thread(cc);